@@ -1,21 +1,58 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 public class Alignment {
     private static final double DEFAULT_GAP_OPEN = -12.0;
     private static final double DEFAULT_GAP_EXTEND = -1.0;
+    private static final String HTML_FILE = "alignment_results.html";
+    // most rows and columns of a DP matrix shown in the html report
+    private static final int HTML_MATRIX_CELLS = 80;
+    private static final int BINSCORE_MAGIC = 0x414c5343; // "ALSC"
+    private static final int BINSCORE_VERSION = 1;
+    // most pairs sharing their first sequence that go to the aligners as one task
+    private static final int BATCH_PAIRS = 32;
+    private static final Future<List<PairResult>> END_OF_RESULTS = CompletableFuture.completedFuture(null);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
     private static final String HELP_TEXT = 
         "Usage: java -jar alignment.jar [options]\n" +
+        "       java -jar alignment.jar build-db SEQLIB DATABASE   (binary library usable as --seqlib)\n" +
         "Options:\n" +
-        "  --pairs FILE       Input file containing sequence pairs to align\n" +
-        "  --seqlib FILE      Sequence library file\n" +
+        "  --pairs FILE       Input file containing sequence pairs to align (may be gzipped)\n" +
+        "  --seqlib FILE      Sequence library: id:sequence lines or FASTA, may be gzipped, or a build-db file\n" +
+        "  --strip-gaps      Drop '-' from text libraries, reading aligned sequences as plain ones\n" +
+        "  --query ID        Query sequence for --search\n" +
+        "  --search          Align the query against every other library sequence instead of --pairs\n" +
+        "  --top <int>       Number of best hits reported by --search (default: 10)\n" +
+        "  --seed            Only align --search targets with an ungapped k-mer seed hit (local, freeshift)\n" +
+        "  --seed-k <int>    Seed word length (default: 3)\n" +
+        "  --seed-word <T>   Neighbourhood words scoring at least T seed a hit (default: 13)\n" +
+        "  --seed-score <S>  Ungapped extension score a target needs to be aligned (default: 33)\n" +
+        "  --seed-recall     Also run the exhaustive search and report the recall of the seeded one\n" +
+        "  --all-vs-all      Score matrix of every library sequence (or --ids) against every other\n" +
+        "  --ids FILE        Sequence ids for --all-vs-all, one per line (default: the whole library)\n" +
+        "  --matrix FORMAT   --all-vs-all output: dense (tab-separated matrix) or sparse (pair lines)\n" +
         "  -m FILE           Substitution matrix file\n" +
         "  --go VALUE        Gap open penalty (default: -12.0)\n" +
         "  --ge VALUE        Gap extend penalty (default: -1.0)\n" +
         "  --mode MODE       Alignment mode: global, local, or freeshift\n" +
         "  --nw              Use NW/SW algorithms instead of Gotoh (default: Gotoh)\n" +
-        "  --format FORMAT   Output format: score, ali, or html\n" +
+        "  --linear          Linear-space (Myers-Miller) global Gotoh alignment\n" +
+        "  --checkpoint      Local Gotoh alignment traced back only inside the hit region\n" +
+        "  --quantize        Integer-scaled scores and int DP kernels for Gotoh\n" +
+        "  --striped         Striped Smith-Waterman scoring for local mode (with --quantize)\n" +
+        "  --wavefront       Parallel tiled wavefront scoring for --format score\n" +
+        "  --band <int>      Banded Gotoh alignment (global and freeshift) within k diagonals\n" +
+        "  --band-exact      Double the band until the banded result is provably optimal\n" +
+        "  --xdrop <X>       X-drop Gotoh alignment (global and freeshift), prune cells X below the best\n" +
+        "  --threads <int>   Threads aligning pairs (default: 1; --search/--all-vs-all/--wavefront: all cores)\n" +
+        "  --format FORMAT   Output format: score, ali, html, or binscore (alignment_results.bin:\n" +
+        "                    \"ALSC\", version, then per pair int entry1, int entry2, double score,\n" +
+        "                    big-endian, with the entries numbered in --seqlib order)\n" +
+        "  --quiet           Do not echo results to stdout\n" +
         "  --dpmatrices DIR  Output directory for DP matrices\n" +
         "  --check          Check alignment scores\n" +
         "  --debug          Enable debug output\n";
@@ -25,11 +62,23 @@ public class Alignment {
     }
 
     public enum Format {
-        SCORE, ALI, HTML
+        SCORE, BINSCORE, ALI, HTML
     }
 
     private String pairsFile;
     private String seqLibFile;
+    private boolean stripGaps = false;
+    private String queryId;
+    private boolean search = false;
+    private int topK = DatabaseSearch.DEFAULT_TOP_K;
+    private boolean seed = false;
+    private int seedK = SeedIndex.DEFAULT_K;
+    private double seedWord = SeedIndex.DEFAULT_WORD_THRESHOLD;
+    private double seedScore = SeedIndex.DEFAULT_MIN_SCORE;
+    private boolean seedRecall = false;
+    private boolean allVsAll = false;
+    private String idsFile;
+    private boolean sparseMatrix = false;
     private String matrixFile;
     private double gapOpen = DEFAULT_GAP_OPEN;
     private double gapExtend = DEFAULT_GAP_EXTEND;
@@ -38,14 +87,37 @@ public class Alignment {
     private String dpMatricesDir;
     private boolean checkScores = false;
     private boolean useNWSW = false;
+    private boolean linearSpace = false;
+    private boolean checkpointLocal = false;
+    private boolean quantize = false;
+    private boolean striped = false;
+    private boolean wavefront = false;
+    private int band = -1;
+    private boolean bandExact = false;
+    private double xDrop = -1;
+    private int threads = 0;
+    private boolean echo = true;
     private boolean debug = false;
 
     private SubstitutionMatrix substitutionMatrix;
     private AlignmentAlgorithm algorithm;
-    private Map<String, String> sequenceLibrary = new HashMap<>();
-    private List<AlignmentPair> alignmentPairs = new ArrayList<>();
+    private StripedSmithWaterman stripedAlgorithm;
+    private BatchSmithWaterman batchAlgorithm;
+    private WavefrontGotoh wavefrontAlgorithm;
+    private BandedGotoh bandedAlgorithm;
+    private XDropGotoh xDropAlgorithm;
+    private long xDropCells;
+    private long xDropFullCells;
+    private int xDropFallbacks;
+    private ForkJoinPool pool;
+    private SequenceDatabase sequenceLibrary;
+    private IdAliasIndex aliasIndex;
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("build-db")) {
+            buildDatabase(args);
+            return;
+        }
         Alignment alignment = new Alignment();
         try {
             alignment.parseArgs(args);
@@ -59,6 +131,20 @@ public class Alignment {
         }
     }
 
+    private static void buildDatabase(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Error: build-db takes a text sequence library and the database file to write");
+            System.exit(1);
+        }
+        try {
+            int count = SequenceDatabase.build(args[1], args[2]);
+            System.err.printf("Wrote %d sequences to %s%n", count, args[2]);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
     private void parseArgs(String[] args) throws Exception {
         if (args.length == 0) {
             throw new IllegalArgumentException("No arguments provided");
@@ -72,6 +158,52 @@ public class Alignment {
                 case "--seqlib":
                     seqLibFile = args[++i];
                     break;
+                case "--strip-gaps":
+                    stripGaps = true;
+                    break;
+                case "--query":
+                    queryId = args[++i];
+                    break;
+                case "--search":
+                    search = true;
+                    break;
+                case "--top":
+                    topK = Integer.parseInt(args[++i]);
+                    if (topK < 1) {
+                        throw new IllegalArgumentException("Invalid number of hits: " + topK);
+                    }
+                    break;
+                case "--seed":
+                    seed = true;
+                    break;
+                case "--seed-k":
+                    seedK = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed-word":
+                    seedWord = Double.parseDouble(args[++i]);
+                    break;
+                case "--seed-score":
+                    seedScore = Double.parseDouble(args[++i]);
+                    break;
+                case "--seed-recall":
+                    seedRecall = true;
+                    break;
+                case "--all-vs-all":
+                    allVsAll = true;
+                    break;
+                case "--ids":
+                    idsFile = args[++i];
+                    break;
+                case "--matrix":
+                    String matrixStr = args[++i].toLowerCase();
+                    if (matrixStr.equals("dense")) {
+                        sparseMatrix = false;
+                    } else if (matrixStr.equals("sparse")) {
+                        sparseMatrix = true;
+                    } else {
+                        throw new IllegalArgumentException("Invalid matrix format: " + matrixStr);
+                    }
+                    break;
                 case "-m":
                     matrixFile = args[++i];
                     break;
@@ -95,6 +227,42 @@ public class Alignment {
                         gapOpen = 0.0;
                     }
                     break;
+                case "--linear":
+                    linearSpace = true;
+                    break;
+                case "--checkpoint":
+                    checkpointLocal = true;
+                    break;
+                case "--quantize":
+                    quantize = true;
+                    break;
+                case "--striped":
+                    striped = true;
+                    break;
+                case "--wavefront":
+                    wavefront = true;
+                    break;
+                case "--band":
+                    band = Integer.parseInt(args[++i]);
+                    if (band < 0) {
+                        throw new IllegalArgumentException("Invalid band: " + band);
+                    }
+                    break;
+                case "--band-exact":
+                    bandExact = true;
+                    break;
+                case "--xdrop":
+                    xDrop = Double.parseDouble(args[++i]);
+                    if (xDrop < 0) {
+                        throw new IllegalArgumentException("Invalid X-drop: " + xDrop);
+                    }
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + threads);
+                    }
+                    break;
                 case "--format":
                     String formatStr = args[++i].toLowerCase();
                     if (formatStr.equals("scores") || formatStr.equals("score")) {
@@ -103,10 +271,15 @@ public class Alignment {
                         format = Format.ALI;
                     } else if (formatStr.equals("html")) {
                         format = Format.HTML;
+                    } else if (formatStr.equals("binscore")) {
+                        format = Format.BINSCORE;
                     } else {
                         throw new IllegalArgumentException("Invalid format: " + formatStr);
                     }
                     break;
+                case "--quiet":
+                    echo = false;
+                    break;
                 case "--dpmatrices":
                     dpMatricesDir = args[++i];
                     break;
@@ -121,9 +294,74 @@ public class Alignment {
             }
         }
 
-        if (pairsFile == null || seqLibFile == null || matrixFile == null) {
+        if (allVsAll) {
+            if (seqLibFile == null || matrixFile == null) {
+                throw new IllegalArgumentException("Missing required arguments: --all-vs-all requires --seqlib and -m");
+            }
+            if (pairsFile != null || search) {
+                throw new IllegalArgumentException("--all-vs-all does not take --pairs or --search");
+            }
+            if (format != Format.SCORE) {
+                throw new IllegalArgumentException("--all-vs-all only writes scores");
+            }
+            if (useNWSW || striped || wavefront || band >= 0 || xDrop >= 0) {
+                throw new IllegalArgumentException("--all-vs-all is not supported with --nw, --striped, --wavefront, --band or --xdrop");
+            }
+        } else if (search) {
+            if (queryId == null || seqLibFile == null || matrixFile == null) {
+                throw new IllegalArgumentException("Missing required arguments: --search requires --query, --seqlib, and -m");
+            }
+            if (pairsFile != null) {
+                throw new IllegalArgumentException("--search aligns against the whole --seqlib and does not take --pairs");
+            }
+            if (useNWSW || striped || wavefront || band >= 0 || xDrop >= 0) {
+                throw new IllegalArgumentException("--search is not supported with --nw, --striped, --wavefront, --band or --xdrop");
+            }
+        } else if (pairsFile == null || seqLibFile == null || matrixFile == null) {
             throw new IllegalArgumentException("Missing required arguments: --pairs, --seqlib, and -m are required");
         }
+        if (queryId != null && !search) {
+            throw new IllegalArgumentException("--query requires --search");
+        }
+        if (seed && (!search || mode == Mode.GLOBAL)) {
+            throw new IllegalArgumentException("--seed is only supported for local and freeshift --search");
+        }
+        if (idsFile != null && !allVsAll) {
+            throw new IllegalArgumentException("--ids requires --all-vs-all");
+        }
+        if (seedRecall && !seed) {
+            throw new IllegalArgumentException("--seed-recall requires --seed");
+        }
+
+        if (linearSpace && (useNWSW || mode != Mode.GLOBAL)) {
+            throw new IllegalArgumentException("--linear is only supported for global Gotoh alignment");
+        }
+        if (checkpointLocal && (useNWSW || mode != Mode.LOCAL)) {
+            throw new IllegalArgumentException("--checkpoint is only supported for local Gotoh alignment");
+        }
+        if (striped && (useNWSW || mode != Mode.LOCAL)) {
+            throw new IllegalArgumentException("--striped is only supported for local Gotoh alignment");
+        }
+        // striped scores are int / scale, which only --quantize scores match to the last bit
+        if (striped && !quantize) {
+            throw new IllegalArgumentException("--striped scores are integer-scaled and require --quantize");
+        }
+        if (wavefront && (useNWSW || !scoresOnly() || quantize || striped)) {
+            throw new IllegalArgumentException("--wavefront is only supported for Gotoh --format score without --quantize or --striped");
+        }
+        if (bandExact && band < 0) {
+            throw new IllegalArgumentException("--band-exact requires --band");
+        }
+        if (band >= 0 && (useNWSW || mode == Mode.LOCAL || linearSpace || quantize || wavefront)) {
+            throw new IllegalArgumentException("--band is only supported for global and freeshift Gotoh alignment without --linear, --quantize or --wavefront");
+        }
+        if (xDrop >= 0 && (useNWSW || mode == Mode.LOCAL || linearSpace || quantize || wavefront || band >= 0)) {
+            throw new IllegalArgumentException("--xdrop is only supported for global and freeshift Gotoh alignment without --linear, --quantize, --wavefront or --band");
+        }
+    }
+
+    private boolean scoresOnly() {
+        return format == Format.SCORE || format == Format.BINSCORE;
     }
 
     private boolean argsContains(String[] args, String arg) {
@@ -138,29 +376,49 @@ public class Alignment {
     private void run() throws IOException {
         loadSequenceLibrary();
         loadSubstitutionMatrix();
-        loadAlignmentPairs();
-        algorithm = new AlignmentAlgorithm(substitutionMatrix, gapOpen, gapExtend);
+        algorithm = new AlignmentAlgorithm(substitutionMatrix, gapOpen, gapExtend, quantize);
+        algorithm.setCaptureMatrices(dpMatricesDir != null);
+        if (striped) {
+            try {
+                stripedAlgorithm = new StripedSmithWaterman(substitutionMatrix, algorithm);
+            } catch (NoClassDefFoundError e) {
+                throw new IllegalStateException("--striped requires the JVM option --add-modules jdk.incubator.vector");
+            }
+        }
+        pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        if (wavefront) {
+            wavefrontAlgorithm = new WavefrontGotoh(algorithm, WavefrontGotoh.DEFAULT_TILE_SIZE, pool);
+        }
+        if (band >= 0) {
+            bandedAlgorithm = new BandedGotoh(algorithm);
+        }
+        if (xDrop >= 0) {
+            xDropAlgorithm = new XDropGotoh(algorithm, xDrop);
+        }
+        if (search) {
+            processSearch();
+            return;
+        }
+        if (allVsAll) {
+            processAllVsAll();
+            return;
+        }
+        // batch scores are int / scale, so they only replace the pairwise kernels of --quantize runs,
+        // whose scores they match exactly; the double kernels' bits never depend on neighbouring pairs
+        if (quantize && scoresOnly() && mode == Mode.LOCAL && !useNWSW && !checkpointLocal && !wavefront) {
+            // optional: without the vector module or exact integer scores the pairwise kernels are used
+            try {
+                batchAlgorithm = new BatchSmithWaterman(substitutionMatrix, algorithm);
+            } catch (NoClassDefFoundError | IllegalArgumentException e) {
+                batchAlgorithm = null;
+            }
+        }
         processAlignments();
     }
 
     private void loadSequenceLibrary() throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(seqLibFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                
-                String[] parts = line.split(":", 2);
-                if (parts.length == 2) {
-                    String id = parts[0].trim();
-                    String sequence = parts[1].trim();
-                    sequenceLibrary.put(id, sequence);
-                    sequenceLibrary.put(id.toLowerCase(), sequence);
-                }
-            }
-        }
-        
-        if (sequenceLibrary.isEmpty()) {
+        sequenceLibrary = SequenceDatabase.open(seqLibFile, stripGaps);
+        if (sequenceLibrary.size() == 0) {
             throw new IOException("No sequences loaded from library file");
         }
     }
@@ -169,59 +427,55 @@ public class Alignment {
         substitutionMatrix = new SubstitutionMatrix(matrixFile, debug);
     }
 
-    private void loadAlignmentPairs() throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pairsFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                
-                String[] parts = line.split("\\s+");
-                String domain1 = null;
-                String domain2 = null;
-                
-                for (int i = 0; i < parts.length - 1; i++) {
-                    if (parts[i].matches("[\\w.]+") && parts[i+1].matches("[\\w.]+")) {
-                        String testDomain1 = convertDomainId(parts[i]);
-                        String testDomain2 = convertDomainId(parts[i+1]);
-                        
-                        if (sequenceLibrary.containsKey(testDomain1) && 
-                            sequenceLibrary.containsKey(testDomain2)) {
-                            domain1 = testDomain1;
-                            domain2 = testDomain2;
-                            break;
-                        }
-                    }
-                }
+    // First two adjacent ids on the line that are both in the library, null if there are none
+    private AlignmentPair parsePair(String line) {
+        line = line.trim();
+        if (line.isEmpty()) {
+            return null;
+        }
+        
+        String[] parts = WHITESPACE.split(line);
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (isIdToken(parts[i]) && isIdToken(parts[i+1])) {
+                IdAliasIndex.Alias domain1 = aliasIndex.resolve(parts[i]);
+                IdAliasIndex.Alias domain2 = aliasIndex.resolve(parts[i+1]);
                 
-                if (domain1 != null && domain2 != null) {
-                    alignmentPairs.add(new AlignmentPair(domain1, domain2));
+                if (domain1.entry >= 0 && domain2.entry >= 0) {
+                    return new AlignmentPair(domain1.name, domain2.name, domain1.entry, domain2.entry);
                 }
             }
-            
-            if (alignmentPairs.isEmpty()) {
-                throw new IOException("No alignment pairs loaded from pairs file.");
+        }
+        return null;
+    }
+
+    // [\w.]+
+    private static boolean isIdToken(String token) {
+        for (int c = 0; c < token.length(); c++) {
+            char ch = token.charAt(c);
+            if (!(ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_' || ch == '.')) {
+                return false;
             }
         }
+        return !token.isEmpty();
     }
 
     private String convertDomainId(String domainId) {
-        if (sequenceLibrary.containsKey(domainId)) {
+        if (sequenceLibrary.contains(domainId)) {
             return domainId;
         }
         
         String lowercaseId = domainId.toLowerCase();
-        if (sequenceLibrary.containsKey(lowercaseId)) {
+        if (sequenceLibrary.contains(lowercaseId)) {
             return lowercaseId;
         }
         
         domainId = domainId.replaceAll("^d|_$", "");
         String cleanId = domainId.replace(".", "");
         
-        if (sequenceLibrary.containsKey(cleanId)) {
+        if (sequenceLibrary.contains(cleanId)) {
             return cleanId;
         }
-        if (sequenceLibrary.containsKey(cleanId.toLowerCase())) {
+        if (sequenceLibrary.contains(cleanId.toLowerCase())) {
             return cleanId.toLowerCase();
         }
         
@@ -238,10 +492,10 @@ public class Alignment {
             );
             
             for (String candidate : candidates) {
-                if (sequenceLibrary.containsKey(candidate)) {
+                if (sequenceLibrary.contains(candidate)) {
                     return candidate;
                 }
-                if (sequenceLibrary.containsKey(candidate.toLowerCase())) {
+                if (sequenceLibrary.contains(candidate.toLowerCase())) {
                     return candidate.toLowerCase();
                 }
             }
@@ -250,29 +504,232 @@ public class Alignment {
         return domainId;
     }
 
-    private void processAlignments() {
-        String detailedOutputFile = "alignment_results.txt";
-        String simpleOutputFile = "simple_alignments.txt";
-        
-        try (PrintWriter detailedWriter = new PrintWriter(new FileWriter(detailedOutputFile));
-             PrintWriter simpleWriter = new PrintWriter(new FileWriter(simpleOutputFile))) {
-            
-            for (AlignmentPair pair : alignmentPairs) {
-                String seq1 = sequenceLibrary.get(pair.id1);
-                String seq2 = sequenceLibrary.get(pair.id2);
+    // Pairs stream through three stages joined by bounded queues: this thread parses the pairs file
+    // and hands batches of pairs to the aligner pool, a writer thread takes the results in pair order
+    // and writes them. A full queue blocks the stage feeding it, so only a window of pairs is held in
+    // memory whatever the size of the pairs file, and the output is that of aligning pair by pair.
+    private void processAlignments() throws IOException {
+        int aligners = Math.max(threads, 1);
+        ExecutorService alignerPool = Executors.newFixedThreadPool(aligners);
+        BlockingQueue<Future<List<PairResult>>> results = new ArrayBlockingQueue<>(4 * aligners);
+        ResultWriter resultWriter = new ResultWriter(results);
+        Thread writerThread = new Thread(resultWriter, "alignment-writer");
+        writerThread.start();
+
+        aliasIndex = new IdAliasIndex(sequenceLibrary, this::convertDomainId);
+        int pairs = 0;
+        try (BufferedReader reader = GzipInput.openReader(pairsFile)) {
+            List<AlignmentPair> batch = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && resultWriter.failure == null) {
+                AlignmentPair pair = parsePair(line);
+                if (pair == null) continue;
                 
-                if (seq1 == null || seq2 == null) {
+                pairs++;
+                // runs of pairs sharing their first sequence are scored together by the batch kernel
+                if (!batch.isEmpty() && (batchAlgorithm == null || batch.size() == BATCH_PAIRS
+                        || batch.get(0).entry1 != pair.entry1)) {
+                    List<AlignmentPair> submitted = batch;
+                    put(results, alignerPool.submit(() -> alignPairs(submitted)));
+                    batch = new ArrayList<>();
+                }
+                batch.add(pair);
+            }
+            if (!batch.isEmpty() && resultWriter.failure == null) {
+                List<AlignmentPair> submitted = batch;
+                put(results, alignerPool.submit(() -> alignPairs(submitted)));
+            }
+        } finally {
+            put(results, END_OF_RESULTS);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            alignerPool.shutdownNow();
+        }
+
+        if (resultWriter.failure instanceof RuntimeException) {
+            throw (RuntimeException) resultWriter.failure;
+        }
+        if (resultWriter.failure instanceof Error) {
+            throw (Error) resultWriter.failure;
+        }
+        if (pairs == 0) {
+            throw new IOException("No alignment pairs loaded from pairs file.");
+        }
+
+        if (xDropAlgorithm != null && debug) {
+            System.err.printf("X-drop: %d of %d cells evaluated (%.1f%%), %d pairs fell back to the full matrix%n",
+                    xDropCells, xDropFullCells, xDropFullCells == 0 ? 0.0 : 100.0 * xDropCells / xDropFullCells,
+                    xDropFallbacks);
+        }
+    }
+
+    // Scores the query against every other library sequence in parallel, then aligns and writes the
+    // top hits one at a time, best first. Only the hits reported get a traceback.
+    private void processSearch() {
+        String query = convertDomainId(queryId);
+        String querySequence = sequenceLibrary.sequence(query);
+        if (querySequence == null) {
+            throw new IllegalArgumentException("Query not found in sequence library: " + queryId);
+        }
+
+        // targets are read from the library as the search reaches them, never all at once
+        List<ByteBuffer> targets = new AbstractList<ByteBuffer>() {
+            @Override
+            public ByteBuffer get(int t) {
+                return sequenceLibrary.id(t).equalsIgnoreCase(query) ? null : sequenceLibrary.residues(t);
+            }
+
+            @Override
+            public int size() {
+                return sequenceLibrary.size();
+            }
+        };
+        DatabaseSearch databaseSearch = new DatabaseSearch(algorithm, mode, topK, pool);
+        List<DatabaseSearch.Hit> hits = seed ? seededSearch(databaseSearch, querySequence, targets)
+                                             : databaseSearch.search(querySequence, targets);
+        List<AlignmentPair> alignmentPairs = new ArrayList<>(hits.size());
+        for (DatabaseSearch.Hit hit : hits) {
+            alignmentPairs.add(new AlignmentPair(query, sequenceLibrary.id(hit.index),
+                    sequenceLibrary.indexOf(query), hit.index));
+        }
+
+        try (ResultFiles files = new ResultFiles()) {
+            for (int h = 0; h < hits.size(); h++) {
+                AlignmentPair pair = alignmentPairs.get(h);
+                if (scoresOnly()) {
+                    outputScores(pair, hits.get(h).score, files);
                     continue;
                 }
-                
-                AlignmentAlgorithm.AlignmentResult result = computeAlignment(seq1, seq2);
-                outputResult(pair, result, detailedWriter, simpleWriter);
+                if (format == Format.HTML && h == 0) {
+                    startHTML(files.html);
+                }
+                outputResult(pair, computeAlignment(querySequence, sequenceLibrary.sequence(pair.entry2)), files);
+            }
+            if (format == Format.HTML && !hits.isEmpty()) {
+                finishHTML(files.html);
             }
         } catch (IOException e) {
             System.err.println("Error writing to output files: " + e.getMessage());
         }
     }
 
+    // Aligns only the targets whose seeds extend to an ungapped hit of at least seedScore
+    private List<DatabaseSearch.Hit> seededSearch(DatabaseSearch databaseSearch, String querySequence,
+                                                  List<ByteBuffer> targets) {
+        List<ByteBuffer> library = new AbstractList<ByteBuffer>() {
+            @Override
+            public ByteBuffer get(int t) {
+                return sequenceLibrary.residues(t);
+            }
+
+            @Override
+            public int size() {
+                return sequenceLibrary.size();
+            }
+        };
+        SeedIndex index = new SeedIndex(substitutionMatrix, library, seedK);
+        SeedIndex.Stats stats = new SeedIndex.Stats();
+        boolean[] candidates = index.candidates(querySequence, seedWord, seedScore, stats);
+
+        List<ByteBuffer> filtered = new ArrayList<>(targets.size());
+        int searched = 0, aligned = 0;
+        for (int t = 0; t < targets.size(); t++) {
+            ByteBuffer target = targets.get(t);
+            if (target != null) {
+                searched++;
+            }
+            if (target != null && candidates[t]) {
+                aligned++;
+                filtered.add(target);
+            } else {
+                filtered.add(null);
+            }
+        }
+        List<DatabaseSearch.Hit> hits = databaseSearch.search(querySequence, filtered);
+        if (debug || seedRecall) {
+            System.err.printf("Seed: %d seeds, %d ungapped extensions, %d of %d targets aligned (%.1f%%)%n",
+                    stats.seeds, stats.extensions, aligned, searched, searched == 0 ? 0.0 : 100.0 * aligned / searched);
+        }
+
+        if (seedRecall) {
+            List<DatabaseSearch.Hit> exhaustive = databaseSearch.search(querySequence, targets);
+            Set<Integer> found = new HashSet<>();
+            for (DatabaseSearch.Hit hit : hits) {
+                found.add(hit.index);
+            }
+            int recalled = 0;
+            for (DatabaseSearch.Hit hit : exhaustive) {
+                if (found.contains(hit.index)) {
+                    recalled++;
+                }
+            }
+            System.err.printf("Seed recall: %d of %d exhaustive top hits (%.1f%%)%n", recalled, exhaustive.size(),
+                    exhaustive.isEmpty() ? 100.0 : 100.0 * recalled / exhaustive.size());
+        }
+        return hits;
+    }
+
+    // Upper-triangle score matrix of the --ids sequences, or of the whole library, on stdout
+    private void processAllVsAll() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (idsFile == null) {
+            for (int t = 0; t < sequenceLibrary.size(); t++) {
+                ids.add(sequenceLibrary.id(t));
+            }
+        } else {
+            try (BufferedReader reader = GzipInput.openReader(idsFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    String id = convertDomainId(line.split("\\s+")[0]);
+                    if (sequenceLibrary.contains(id)) {
+                        ids.add(id);
+                    } else {
+                        System.err.println("Skipping unknown sequence id: " + line);
+                    }
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new IOException("No sequences for --all-vs-all");
+        }
+
+        List<String> sequences = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            sequences.add(sequenceLibrary.sequence(id));
+        }
+        double[] scores = new AllVsAll(algorithm, mode, AllVsAll.DEFAULT_TILE_SIZE, pool).scores(sequences);
+
+        int n = ids.size();
+        try (OutputSink writer = new OutputSink(System.out)) {
+            if (sparseMatrix) {
+                for (int i = 0; i < n; i++) {
+                    for (int j = i + 1; j < n; j++) {
+                        writer.append(ids.get(i)).append(' ').append(ids.get(j)).append(' ')
+                                .appendFixed(scores[(int) AllVsAll.index(i, j, n)], 4).newLine();
+                    }
+                }
+            } else {
+                for (String id : ids) {
+                    writer.append('\t').append(id);
+                }
+                writer.newLine();
+                for (int i = 0; i < n; i++) {
+                    writer.append(ids.get(i));
+                    for (int j = 0; j < n; j++) {
+                        long cell = i <= j ? AllVsAll.index(i, j, n) : AllVsAll.index(j, i, n);
+                        writer.append('\t').appendFixed(scores[(int) cell], 4);
+                    }
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
     private AlignmentAlgorithm.AlignmentResult computeAlignment(String seq1, String seq2) {
         if (useNWSW) {
             switch (mode) {
@@ -285,11 +742,42 @@ public class Alignment {
                 default:
                     throw new IllegalStateException("Unknown alignment mode: " + mode);
             }
+        } else if (xDropAlgorithm != null) {
+            XDropGotoh.XDropResult result = mode == Mode.GLOBAL ? xDropAlgorithm.globalAlignment(seq1, seq2)
+                                                                : xDropAlgorithm.freeShiftAlignment(seq1, seq2);
+            synchronized (this) {
+                xDropCells += result.cellsEvaluated;
+                xDropFullCells += (long) (seq1.length() + 1) * (seq2.length() + 1);
+                if (result.fullMatrix) {
+                    xDropFallbacks++;
+                }
+            }
+            return result.alignment;
+        } else if (bandedAlgorithm != null) {
+            switch (mode) {
+                case GLOBAL:
+                    return bandExact ? bandedAlgorithm.globalAlignmentExact(seq1, seq2, band)
+                                     : bandedAlgorithm.globalAlignment(seq1, seq2, band);
+                case FREESHIFT:
+                    return bandExact ? bandedAlgorithm.freeShiftAlignmentExact(seq1, seq2, band)
+                                     : bandedAlgorithm.freeShiftAlignment(seq1, seq2, band);
+                default:
+                    throw new IllegalStateException("Unknown alignment mode: " + mode);
+            }
         } else {
             switch (mode) {
                 case GLOBAL:
+                    if (linearSpace) {
+                        return new MyersMiller(seq1, seq2, algorithm).computeAlignment();
+                    }
                     return algorithm.globalAlignment(seq1, seq2);
                 case LOCAL:
+                    if (checkpointLocal) {
+                        return algorithm.localAlignmentCheckpointed(seq1, seq2);
+                    }
+                    if (stripedAlgorithm != null) {
+                        return stripedAlgorithm.computeAlignment(seq1, seq2);
+                    }
                     return algorithm.localAlignment(seq1, seq2);
                 case FREESHIFT:
                     return algorithm.freeShiftAlignment(seq1, seq2);
@@ -299,118 +787,322 @@ public class Alignment {
         }
     }
 
-    private void outputResult(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result, 
-                            PrintWriter detailedWriter, PrintWriter simpleWriter) {
+    private static class PairResult {
+        final AlignmentPair pair;
+        final double score;
+        // null when only the score was computed
+        final AlignmentAlgorithm.AlignmentResult alignment;
+
+        PairResult(AlignmentPair pair, double score, AlignmentAlgorithm.AlignmentResult alignment) {
+            this.pair = pair;
+            this.score = score;
+            this.alignment = alignment;
+        }
+    }
+
+    // Scores or alignments of a batch of pairs, in batch order
+    private List<PairResult> alignPairs(List<AlignmentPair> batch) {
+        List<PairResult> results = new ArrayList<>(batch.size());
+        if (scoresOnly() && !useNWSW && batchAlgorithm != null && batch.size() > 1) {
+            // parsePair only returns pairs of library sequences, and a batch shares its first one
+            List<ByteBuffer> targets = new ArrayList<>(batch.size());
+            for (AlignmentPair pair : batch) {
+                targets.add(sequenceLibrary.residues(pair.entry2));
+            }
+            double[] scores = batchAlgorithm.scores(sequenceLibrary.sequence(batch.get(0).entry1), targets);
+            for (int t = 0; t < batch.size(); t++) {
+                results.add(new PairResult(batch.get(t), scores[t], null));
+            }
+            return results;
+        }
+
+        for (AlignmentPair pair : batch) {
+            String seq1 = sequenceLibrary.sequence(pair.entry1);
+            String seq2 = sequenceLibrary.sequence(pair.entry2);
+            
+            if (scoresOnly() && !useNWSW) {
+                results.add(new PairResult(pair, computeScore(seq1, seq2), null));
+                continue;
+            }
+
+            AlignmentAlgorithm.AlignmentResult result = computeAlignment(seq1, seq2);
+            results.add(new PairResult(pair, result.score, result));
+        }
+        return results;
+    }
+
+    // Output stage of processAlignments. After a failure the remaining results are only drained, so
+    // the stages feeding it never block on a full queue.
+    private class ResultWriter implements Runnable {
+        private final BlockingQueue<Future<List<PairResult>>> results;
+        volatile Throwable failure;
+
+        ResultWriter(BlockingQueue<Future<List<PairResult>>> results) {
+            this.results = results;
+        }
+
+        @Override
+        public void run() {
+            // the files are only created once there is a pair to write
+            Future<List<PairResult>> batch = take();
+            if (batch == END_OF_RESULTS) {
+                return;
+            }
+            
+            try (ResultFiles files = new ResultFiles()) {
+                boolean first = true;
+                for (; batch != END_OF_RESULTS; batch = take()) {
+                    for (PairResult result : await(batch)) {
+                        if (result.alignment == null) {
+                            outputScores(result.pair, result.score, files);
+                            continue;
+                        }
+                        if (format == Format.HTML && first) {
+                            startHTML(files.html);
+                        }
+                        first = false;
+                        outputResult(result.pair, result.alignment, files);
+                    }
+                }
+                if (format == Format.HTML && !first) {
+                    finishHTML(files.html);
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing to output files: " + e.getMessage());
+                failure = new IllegalStateException(e);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            if (failure != null) {
+                while (take() != END_OF_RESULTS) {
+                    // discard
+                }
+            }
+        }
+
+        private Future<List<PairResult>> take() {
+            try {
+                return results.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while writing results");
+            }
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aligning pairs");
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aligning pairs");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private double computeScore(String seq1, String seq2) {
+        if (bandedAlgorithm != null || xDropAlgorithm != null) {
+            return computeAlignment(seq1, seq2).score;
+        }
+        if (wavefrontAlgorithm != null) {
+            switch (mode) {
+                case GLOBAL:
+                    return wavefrontAlgorithm.globalScore(seq1, seq2).score;
+                case LOCAL:
+                    return wavefrontAlgorithm.localScore(seq1, seq2).score;
+                case FREESHIFT:
+                    return wavefrontAlgorithm.freeShiftScore(seq1, seq2).score;
+                default:
+                    throw new IllegalStateException("Unknown alignment mode: " + mode);
+            }
+        }
+        switch (mode) {
+            case GLOBAL:
+                return algorithm.globalScore(seq1, seq2).score;
+            case LOCAL:
+                if (stripedAlgorithm != null) {
+                    return stripedAlgorithm.score(seq1, seq2);
+                }
+                return algorithm.localScore(seq1, seq2).score;
+            case FREESHIFT:
+                return algorithm.freeShiftScore(seq1, seq2).score;
+            default:
+                throw new IllegalStateException("Unknown alignment mode: " + mode);
+        }
+    }
+
+    // Output files of a run: alignment_results.txt, echoed to stdout unless --quiet, and
+    // simple_alignments.txt; alignment_results.bin alone for binscore. With html the report goes to
+    // alignment_results.html, appended to as before, the result files stay empty and only the
+    // alignments are echoed.
+    private class ResultFiles implements Closeable {
+        final OutputSink detailed;
+        final OutputSink simple;
+        final OutputSink echo;
+        final OutputSink html;
+
+        ResultFiles() throws IOException {
+            if (format == Format.BINSCORE) {
+                detailed = new OutputSink(new FileOutputStream("alignment_results.bin"));
+                detailed.writeInt(BINSCORE_MAGIC).writeInt(BINSCORE_VERSION);
+                simple = null;
+                echo = null;
+                html = null;
+                return;
+            }
+            FileOutputStream detailedFile = new FileOutputStream("alignment_results.txt");
+            detailed = Alignment.this.echo && format != Format.HTML ? new OutputSink(detailedFile, System.out)
+                                                                     : new OutputSink(detailedFile);
+            simple = new OutputSink(new FileOutputStream("simple_alignments.txt"));
+            echo = Alignment.this.echo && format == Format.HTML ? new OutputSink(System.out) : null;
+            html = format == Format.HTML ? new OutputSink(new FileOutputStream(HTML_FILE, true)) : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            detailed.close();
+            if (simple != null) {
+                simple.close();
+            }
+            if (echo != null) {
+                echo.close();
+            }
+            if (html != null) {
+                html.close();
+            }
+        }
+    }
+
+    private void outputResult(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result, ResultFiles files)
+            throws IOException {
         switch (format) {
             case SCORE:
-                outputScores(pair, result, detailedWriter);
+            case BINSCORE:
+                outputScores(pair, result.score, files);
                 break;
             case ALI:
-                outputAlignment(pair, result, detailedWriter, simpleWriter);
+                outputAlignment(pair, result, files.detailed, files.simple);
                 break;
             case HTML:
-                outputHTML(pair, result);
+                outputHTML(pair, result, files.html);
+                if (files.echo != null) {
+                    outputAlignment(pair, result, files.echo, null);
+                }
                 break;
         }
     }
 
-    private void outputScores(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result, PrintWriter writer) {
-        String output = String.format("%s %s %.4f%n", pair.id1, pair.id2, result.score);
-        System.out.print(output);
-        writer.print(output);
+    private void outputScores(AlignmentPair pair, double score, ResultFiles files) throws IOException {
+        if (format == Format.BINSCORE) {
+            files.detailed.writeInt(pair.entry1).writeInt(pair.entry2).writeDouble(score);
+            return;
+        }
+        files.detailed.append(pair.id1).append(' ').append(pair.id2).append(' ').appendFixed(score, 4).newLine();
     }
 
-    private void outputAlignment(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result, 
-                               PrintWriter detailedWriter, PrintWriter simpleWriter) {
-        String[] detailedOutputs = {
-            String.format(">%s %s %.3f%n", pair.id1, pair.id2, result.score),
-            String.format("%s: %s%n", pair.id1, result.seq1Aligned),
-            String.format("%s: %s%n", pair.id2, result.seq2Aligned),
-            System.lineSeparator()
-        };
-        
-        for (String output : detailedOutputs) {
-            System.out.print(output);
-            detailedWriter.print(output);
-        }
+    // simple may be null
+    private void outputAlignment(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result,
+                                 OutputSink detailed, OutputSink simple) throws IOException {
+        String aligned1 = result.getSeq1Aligned();
+        String aligned2 = result.getSeq2Aligned();
+        detailed.append('>').append(pair.id1).append(' ').append(pair.id2).append(' ')
+                .appendFixed(result.score, 3).newLine();
+        detailed.append(pair.id1).append(": ").append(aligned1).newLine();
+        detailed.append(pair.id2).append(": ").append(aligned2).newLine();
+        detailed.newLine();
 
-        String[] simpleOutputs = {
-            String.format("%s:%s%n", pair.id1, result.seq1Aligned),
-            String.format("%s:%s%n", pair.id2, result.seq2Aligned)
-        };
-        
-        for (String output : simpleOutputs) {
-            simpleWriter.print(output);
+        if (simple != null) {
+            simple.append(pair.id1).append(':').append(aligned1).newLine();
+            simple.append(pair.id2).append(':').append(aligned2).newLine();
         }
     }
 
-    private void outputHTML(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result) {
-        String htmlFile = "alignment_results.html";
-        try (PrintWriter writer = new PrintWriter(new FileWriter(htmlFile, true))) {
-            if (pair == alignmentPairs.get(0)) {
-                writer.println("<!DOCTYPE html>");
-                writer.println("<html><head><style>");
-                writer.println("body { font-family: monospace; }");
-                writer.println(".match { background-color: #90EE90; }");
-                writer.println(".positive { background-color: #FFB6C1; }");
-                writer.println(".mismatch { background-color: #FFFFFF; }");
-                writer.println("</style></head><body>");
-            }
-            
-            writer.printf("<h2>Alignment: %s vs %s</h2>%n", pair.id1, pair.id2);
-            writer.printf("<p>Score: %.4f</p>%n", result.score);
-            writer.printf("<p>Length: %d</p>%n", result.alignmentLength);
-            writer.printf("<p>Matches: %d (%.1f%%)</p>%n", 
-                    result.numMatches, 
-                    100.0 * result.numMatches / result.alignmentLength);
-            writer.printf("<p>Positives: %d (%.1f%%)</p>%n",
-                    result.numPositives,
-                    100.0 * result.numPositives / result.alignmentLength);
-            
-            writer.println("<pre>");
-            outputAlignmentHTML(writer, result);
-            writer.println("</pre>");
-            
-            if (dpMatricesDir != null) {
-                writer.println("<h3>Dynamic Programming Matrix</h3>");
-                writer.println("<pre>");
-                outputDPMatrixHTML(writer, result);
-                writer.println("</pre>");
-            }
+    private void startHTML(OutputSink writer) throws IOException {
+        writer.append("<!DOCTYPE html>").newLine();
+        writer.append("<html><head><style>").newLine();
+        writer.append("body { font-family: monospace; }").newLine();
+        writer.append(".match { background-color: #90EE90; }").newLine();
+        writer.append(".positive { background-color: #FFB6C1; }").newLine();
+        writer.append(".mismatch { background-color: #FFFFFF; }").newLine();
+        writer.append("</style></head><body>").newLine();
+    }
 
-            if (pair == alignmentPairs.get(alignmentPairs.size() - 1)) {
-                writer.println("</body></html>");
-            }
+    private void finishHTML(OutputSink writer) throws IOException {
+        writer.append("</body></html>").newLine();
+    }
 
-            outputAlignment(pair, result, new PrintWriter(System.out), new PrintWriter(System.out));
-        } catch (IOException e) {
-            System.err.println("Error writing HTML output: " + e.getMessage());
+    private void outputHTML(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result, OutputSink writer)
+            throws IOException {
+        writer.append("<h2>Alignment: ").append(pair.id1).append(" vs ").append(pair.id2).append("</h2>").newLine();
+        writer.append("<p>Score: ").appendFixed(result.score, 4).append("</p>").newLine();
+        writer.append("<p>Length: ").appendInt(result.alignmentLength).append("</p>").newLine();
+        writer.append("<p>Matches: ").appendInt(result.getNumMatches()).append(" (")
+                .appendFixed(100.0 * result.getNumMatches() / result.alignmentLength, 1).append("%)</p>").newLine();
+        writer.append("<p>Positives: ").appendInt(result.getNumPositives()).append(" (")
+                .appendFixed(100.0 * result.getNumPositives() / result.alignmentLength, 1).append("%)</p>").newLine();
+        
+        writer.append("<pre>").newLine();
+        outputAlignmentHTML(writer, result);
+        writer.append("</pre>").newLine();
+        
+        if (dpMatricesDir != null && result.dpMatrix != null) {
+            writer.append("<h3>Dynamic Programming Matrix</h3>").newLine();
+            writer.append("<pre>").newLine();
+            outputDPMatrixHTML(writer, result);
+            writer.append("</pre>").newLine();
         }
     }
 
-    private void outputAlignmentHTML(PrintWriter writer, AlignmentAlgorithm.AlignmentResult result) {
+    private void outputAlignmentHTML(OutputSink writer, AlignmentAlgorithm.AlignmentResult result)
+            throws IOException {
         int lineLength = 60;
+        String aligned1 = result.getSeq1Aligned();
+        String aligned2 = result.getSeq2Aligned();
         for (int i = 0; i < result.alignmentLength; i += lineLength) {
             int end = Math.min(i + lineLength, result.alignmentLength);
             
-            writer.printf("%-10s ", result.seq1Aligned.substring(i, end));
-            writer.println();
+            appendPadded(writer, aligned1.substring(i, end), 10).append(' ').newLine();
             
-            writer.print("           ");
+            writer.append("           ");
             for (int j = i; j < end; j++) {
-                char c1 = result.seq1Aligned.charAt(j);
-                char c2 = result.seq2Aligned.charAt(j);
-                if (c1 == c2 && c1 != '-') writer.print("|");
+                char c1 = aligned1.charAt(j);
+                char c2 = aligned2.charAt(j);
+                if (c1 == c2 && c1 != '-') writer.append('|');
                 else if (c1 != '-' && c2 != '-' && 
-                        substitutionMatrix.getScore(c1, c2) > 0) writer.print("+");
-                else writer.print(" ");
+                        substitutionMatrix.getScore(c1, c2) > 0) writer.append('+');
+                else writer.append(' ');
             }
-            writer.println();
+            writer.newLine();
             
-            writer.printf("%-10s ", result.seq2Aligned.substring(i, end));
-            writer.println();
-            writer.println();
+            appendPadded(writer, aligned2.substring(i, end), 10).append(' ').newLine();
+            writer.newLine();
+        }
+    }
+
+    // text left-justified in width columns, like %-<width>s
+    private static OutputSink appendPadded(OutputSink writer, String text, int width) throws IOException {
+        writer.append(text);
+        for (int c = text.length(); c < width; c++) {
+            writer.append(' ');
         }
+        return writer;
     }
 
     private void outputDPMatrix(AlignmentPair pair, AlignmentAlgorithm.AlignmentResult result) {
@@ -427,27 +1119,110 @@ public class Alignment {
         }
     }
 
-    private void outputDPMatrixHTML(PrintWriter writer, AlignmentAlgorithm.AlignmentResult result) {
-        writer.println("<table border='1' cellpadding='5'>");
-        for (int i = 0; i < result.dpMatrix.length; i++) {
-            writer.println("<tr>");
-            for (int j = 0; j < result.dpMatrix[i].length; j++) {
-                String bgColor = result.backtrackMatrix[i][j] == 0 ? "#90EE90" : 
-                               result.backtrackMatrix[i][j] == 1 ? "#FFB6C1" : "#FFFFFF";
-                writer.printf("<td bgcolor='%s'>%.2f</td>", bgColor, result.dpMatrix[i][j]);
+    // Matrices up to HTML_MATRIX_CELLS a side are shown cell by cell, coloured by the source of each
+    // cell. Larger ones are shown as a heatmap of at most HTML_MATRIX_CELLS blocks a side: each block
+    // holds its highest value, shaded from white (matrix minimum) to blue (maximum), and blocks the
+    // alignment passes through are green. The report size is then bounded whatever the sequence length.
+    private void outputDPMatrixHTML(OutputSink writer, AlignmentAlgorithm.AlignmentResult result)
+            throws IOException {
+        double[][] dp = result.dpMatrix;
+        if (dp.length <= HTML_MATRIX_CELLS && dp[0].length <= HTML_MATRIX_CELLS) {
+            writer.append("<table border='1' cellpadding='5'>").newLine();
+            for (int i = 0; i < dp.length; i++) {
+                writer.append("<tr>").newLine();
+                for (int j = 0; j < dp[i].length; j++) {
+                    String bgColor = result.traceback.source(i, j) == 0 ? "#90EE90" : 
+                                   result.traceback.source(i, j) == 1 ? "#FFB6C1" : "#FFFFFF";
+                    writer.append("<td bgcolor='").append(bgColor).append("'>").appendFixed(dp[i][j], 2).append("</td>");
+                }
+                writer.append("</tr>").newLine();
+            }
+            writer.append("</table>").newLine();
+            return;
+        }
+
+        int rowStep = (dp.length + HTML_MATRIX_CELLS - 1) / HTML_MATRIX_CELLS;
+        int colStep = (dp[0].length + HTML_MATRIX_CELLS - 1) / HTML_MATRIX_CELLS;
+        int blockRows = (dp.length + rowStep - 1) / rowStep;
+        int blockCols = (dp[0].length + colStep - 1) / colStep;
+        double[][] blocks = new double[blockRows][blockCols];
+        for (double[] row : blocks) {
+            Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        }
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < dp.length; i++) {
+            for (int j = 0; j < dp[i].length; j++) {
+                double value = dp[i][j];
+                // unreachable cells are kept at -infinity by some kernels
+                if (Double.isInfinite(value) || Double.isNaN(value)) continue;
+                blocks[i / rowStep][j / colStep] = Math.max(blocks[i / rowStep][j / colStep], value);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+
+        // cells on the path between the first and the last aligned pair of residues
+        boolean[][] onPath = new boolean[blockRows][blockCols];
+        Cigar cigar = result.cigar;
+        int i = 0, j = 0;
+        for (int k = 0; k < cigar.size(); k++) {
+            for (int c = 0; c < cigar.length(k); c++) {
+                if (cigar.op(k) != Cigar.INSERTION) i++;
+                if (cigar.op(k) != Cigar.DELETION) j++;
+                if (i > result.getStart1() && i <= result.getEnd1() && j > result.getStart2() && j <= result.getEnd2()) {
+                    onPath[i / rowStep][j / colStep] = true;
+                }
+            }
+        }
+
+        writer.append("<p>").appendInt(dp.length).append(" x ").appendInt(dp[0].length)
+                .append(" matrix in blocks of ").appendInt(rowStep).append(" x ").appendInt(colStep)
+                .append(" cells, each showing its highest value</p>").newLine();
+        writer.append("<table border='1' cellpadding='2'>").newLine();
+        writer.append("<tr><th></th>");
+        for (int bj = 0; bj < blockCols; bj++) {
+            writer.append("<th>").appendInt(bj * colStep).append("</th>");
+        }
+        writer.append("</tr>").newLine();
+        for (int bi = 0; bi < blockRows; bi++) {
+            writer.append("<tr><th>").appendInt(bi * rowStep).append("</th>");
+            for (int bj = 0; bj < blockCols; bj++) {
+                double value = blocks[bi][bj];
+                writer.append("<td bgcolor='");
+                if (onPath[bi][bj]) {
+                    writer.append("#90EE90");
+                } else {
+                    double level = max > min && !Double.isInfinite(value) ? (value - min) / (max - min) : 0;
+                    int shade = 255 - (int) Math.round(level * 160);
+                    writer.append('#');
+                    appendHex(writer, shade);
+                    appendHex(writer, shade);
+                    writer.append("FF");
+                }
+                writer.append("'>").appendFixed(value, 2).append("</td>");
             }
-            writer.println("</tr>");
+            writer.append("</tr>").newLine();
         }
-        writer.println("</table>");
+        writer.append("</table>").newLine();
+    }
+
+    private static void appendHex(OutputSink writer, int value) throws IOException {
+        writer.append(Character.toUpperCase(Character.forDigit(value >> 4, 16)))
+              .append(Character.toUpperCase(Character.forDigit(value & 15, 16)));
     }
 
+    // ids as written in the output, with the library entries they resolved to
     private static class AlignmentPair {
         final String id1;
         final String id2;
+        final int entry1;
+        final int entry2;
 
-        AlignmentPair(String id1, String id2) {
+        AlignmentPair(String id1, String id2, int entry1, int entry2) {
             this.id1 = id1;
             this.id2 = id2;
+            this.entry1 = entry1;
+            this.entry2 = entry2;
         }
     }
 }
@@ -121,6 +121,7 @@ public class Alignment1 {
         loadSubstitutionMatrix();
         loadAlignmentPairs();
         algorithm = new AlignmentAlgorithm(substitutionMatrix, gapOpen, gapExtend);
+        algorithm.setCaptureMatrices(dpMatricesDir != null);
         processAlignments();
     }
 
@@ -307,8 +308,8 @@ public class Alignment1 {
         // Detailed format output
         String[] detailedOutputs = {
                 String.format(">%s %s %.3f%n", pair.id1, pair.id2, result.score),
-                String.format("%s: %s%n", pair.id1, result.seq1Aligned),
-                String.format("%s: %s%n", pair.id2, result.seq2Aligned),
+                String.format("%s: %s%n", pair.id1, result.getSeq1Aligned()),
+                String.format("%s: %s%n", pair.id2, result.getSeq2Aligned()),
                 System.lineSeparator()
         };
 
@@ -319,8 +320,8 @@ public class Alignment1 {
 
         // Simple format output
         String[] simpleOutputs = {
-                String.format("%s:%s%n", pair.id1, result.seq1Aligned),
-                String.format("%s:%s%n", pair.id2, result.seq2Aligned)
+                String.format("%s:%s%n", pair.id1, result.getSeq1Aligned()),
+                String.format("%s:%s%n", pair.id2, result.getSeq2Aligned())
         };
 
         for (String output : simpleOutputs) {
@@ -346,11 +347,11 @@ public class Alignment1 {
             writer.printf("<p>Score: %.4f</p>%n", result.score);
             writer.printf("<p>Length: %d</p>%n", result.alignmentLength);
             writer.printf("<p>Matches: %d (%.1f%%)</p>%n",
-                    result.numMatches,
-                    100.0 * result.numMatches / result.alignmentLength);
+                    result.getNumMatches(),
+                    100.0 * result.getNumMatches() / result.alignmentLength);
             writer.printf("<p>Positives: %d (%.1f%%)</p>%n",
-                    result.numPositives,
-                    100.0 * result.numPositives / result.alignmentLength);
+                    result.getNumPositives(),
+                    100.0 * result.getNumPositives() / result.alignmentLength);
 
             writer.println("<pre>");
             outputAlignmentHTML(writer, result);
@@ -377,16 +378,18 @@ public class Alignment1 {
 
     private void outputAlignmentHTML(PrintWriter writer, AlignmentAlgorithm.AlignmentResult result) {
         int lineLength = 60;
+        String aligned1 = result.getSeq1Aligned();
+        String aligned2 = result.getSeq2Aligned();
         for (int i = 0; i < result.alignmentLength; i += lineLength) {
             int end = Math.min(i + lineLength, result.alignmentLength);
 
-            writer.printf("%-10s ", result.seq1Aligned.substring(i, end));
+            writer.printf("%-10s ", aligned1.substring(i, end));
             writer.println();
 
             writer.print("           ");
             for (int j = i; j < end; j++) {
-                char c1 = result.seq1Aligned.charAt(j);
-                char c2 = result.seq2Aligned.charAt(j);
+                char c1 = aligned1.charAt(j);
+                char c2 = aligned2.charAt(j);
                 if (c1 == c2 && c1 != '-') writer.print("|");
                 else if (c1 != '-' && c2 != '-' &&
                         substitutionMatrix.getScore(c1, c2) > 0) writer.print("+");
@@ -394,7 +397,7 @@ public class Alignment1 {
             }
             writer.println();
 
-            writer.printf("%-10s ", result.seq2Aligned.substring(i, end));
+            writer.printf("%-10s ", aligned2.substring(i, end));
             writer.println();
             writer.println();
         }
@@ -419,8 +422,8 @@ public class Alignment1 {
         for (int i = 0; i < result.dpMatrix.length; i++) {
             writer.println("<tr>");
             for (int j = 0; j < result.dpMatrix[i].length; j++) {
-                String bgColor = result.backtrackMatrix[i][j] == 0 ? "#90EE90" :
-                        result.backtrackMatrix[i][j] == 1 ? "#FFB6C1" : "#FFFFFF";
+                String bgColor = result.traceback.source(i, j) == 0 ? "#90EE90" :
+                        result.traceback.source(i, j) == 1 ? "#FFB6C1" : "#FFFFFF";
                 writer.printf("<td bgcolor='%s'>%.2f</td>", bgColor, result.dpMatrix[i][j]);
             }
             writer.println("</tr>");
@@ -1,476 +1,702 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class AlignmentAlgorithm {
     private final SubstitutionMatrix substitutionMatrix;
     private final double gapOpenPenalty;
     private final double gapExtendPenalty;
+    private final QuantizedGotoh quantizedKernels;
+    private boolean captureMatrices = false;
+    // float scores equal up to rounding are treated as ties when recording traceback codes
+    private static final double TRACEBACK_TOLERANCE = 0.0001;
 
     public AlignmentAlgorithm(SubstitutionMatrix matrix, double gapOpen, double gapExtend) {
+        this(matrix, gapOpen, gapExtend, false);
+    }
+
+    // quantize: run the Gotoh kernels on integer-scaled scores (exact, no float tolerance in traceback)
+    public AlignmentAlgorithm(SubstitutionMatrix matrix, double gapOpen, double gapExtend, boolean quantize) {
         this.substitutionMatrix = matrix;
         this.gapOpenPenalty = gapOpen;
         this.gapExtendPenalty = gapExtend;
+        this.quantizedKernels = quantize ? new QuantizedGotoh(matrix, this) : null;
+    }
+
+    // Integer kernels, unless their scores for this pair could overflow
+    private boolean quantized(String seq1, String seq2) {
+        return quantized(seq1.length(), seq2.length());
+    }
+
+    private boolean quantized(int m, int n) {
+        return quantizedKernels != null && quantizedKernels.fits(m, n);
+    }
+
+    // Keep M and the traceback codes in every AlignmentResult; only needed for DP matrix output
+    public void setCaptureMatrices(boolean captureMatrices) {
+        this.captureMatrices = captureMatrices;
+    }
+
+    public boolean capturesMatrices() {
+        return captureMatrices;
     }
 
     public class GotohMatrices {
         double[][] M;
         double[][] E; //2
         double[][] F; //1
-        int[][] backtrack;
-        
+
         GotohMatrices(int m, int n) {
             M = new double[m + 1][n + 1];
             E = new double[m + 1][n + 1];
             F = new double[m + 1][n + 1];
-            backtrack = new int[m + 1][n + 1];
 
             for (int i = 0; i <= m; i++) {
-                for (int j = 0; j <= n; j++) {
-                    E[i][j] = Double.NEGATIVE_INFINITY;
-                    F[i][j] = Double.NEGATIVE_INFINITY;
-                }
+                Arrays.fill(E[i], Double.NEGATIVE_INFINITY);
+                Arrays.fill(F[i], Double.NEGATIVE_INFINITY);
             }
         }
     }
 
-    public class AlignmentResult {
-        public final String seq1Aligned;
-        public final String seq2Aligned;
+    // Holds no reference to the algorithm and, unless matrices are captured, nothing of size m*n.
+    // The alignment is kept as a run-length transcript; gapped strings, matches, positives and the
+    // aligned region are only worked out on first use.
+    public static class AlignmentResult {
         public final double score;
+        public final Cigar cigar;
         public final double[][] dpMatrix;
-        public final int[][] backtrackMatrix;
+        public final Traceback traceback;
         public final int alignmentLength;
-        public final int numMatches;
-        public final int numPositives;
-
-        public AlignmentResult(String seq1Aligned, String seq2Aligned, double score,
-                             double[][] dpMatrix, int[][] backtrackMatrix) {
-            this.seq1Aligned = seq1Aligned;
-            this.seq2Aligned = seq2Aligned;
+        private final String seq1;
+        private final String seq2;
+        private final SubstitutionMatrix substitutionMatrix;
+
+        private String seq1Aligned;
+        private String seq2Aligned;
+        private boolean counted = false;
+        private int numMatches;
+        private int numPositives;
+        private int start1, end1, start2, end2;
+
+        public AlignmentResult(String seq1, String seq2, Cigar cigar, double score,
+                             SubstitutionMatrix substitutionMatrix, double[][] dpMatrix, Traceback traceback) {
+            this.seq1 = seq1;
+            this.seq2 = seq2;
+            this.cigar = cigar;
             this.score = score;
+            this.substitutionMatrix = substitutionMatrix;
             this.dpMatrix = dpMatrix;
-            this.backtrackMatrix = backtrackMatrix;
-            
-            this.alignmentLength = seq1Aligned.length();
+            this.traceback = traceback;
+            this.alignmentLength = cigar.columns();
+        }
+
+        public String getSeq1Aligned() {
+            if (seq1Aligned == null) {
+                seq1Aligned = cigar.aligned1(seq1);
+            }
+            return seq1Aligned;
+        }
+
+        public String getSeq2Aligned() {
+            if (seq2Aligned == null) {
+                seq2Aligned = cigar.aligned2(seq2);
+            }
+            return seq2Aligned;
+        }
+
+        public int getNumMatches() {
+            count();
+            return numMatches;
+        }
+
+        public int getNumPositives() {
+            count();
+            return numPositives;
+        }
+
+        // Residue ranges [start, end) covered by the first through last aligned pair of residues
+        public int getStart1() {
+            count();
+            return start1;
+        }
+
+        public int getEnd1() {
+            count();
+            return end1;
+        }
+
+        public int getStart2() {
+            count();
+            return start2;
+        }
+
+        public int getEnd2() {
+            count();
+            return end2;
+        }
+
+        private void count() {
+            if (counted) {
+                return;
+            }
             int matches = 0;
             int positives = 0;
-            for (int i = 0; i < alignmentLength; i++) {
-                char c1 = seq1Aligned.charAt(i);
-                char c2 = seq2Aligned.charAt(i);
-                if (c1 != '-' && c2 != '-') {
-                    if (c1 == c2) matches++;
-                    if (substitutionMatrix.getScore(c1, c2) > 0) positives++;
+            int i = 0, j = 0;
+            boolean first = true;
+            for (int k = 0; k < cigar.size(); k++) {
+                int length = cigar.length(k);
+                switch (cigar.op(k)) {
+                    case Cigar.MATCH:
+                        if (first) {
+                            start1 = i;
+                            start2 = j;
+                            first = false;
+                        }
+                        for (int c = 0; c < length; c++, i++, j++) {
+                            char c1 = seq1.charAt(i);
+                            char c2 = seq2.charAt(j);
+                            if (c1 == c2) matches++;
+                            if (substitutionMatrix.getScore(c1, c2) > 0) positives++;
+                        }
+                        end1 = i;
+                        end2 = j;
+                        break;
+                    case Cigar.INSERTION:
+                        j += length;
+                        break;
+                    default:
+                        i += length;
+                        break;
                 }
             }
-            this.numMatches = matches;
-            this.numPositives = positives;
+            numMatches = matches;
+            numPositives = positives;
+            counted = true;
         }
     }
 
-    public AlignmentResult globalAlignment(String seq1, String seq2) {
-        int m = seq1.length();
-        int n = seq2.length();
-        GotohMatrices matrices = new GotohMatrices(m, n);
+    public AlignmentResult createResult(String seq1, String seq2, Cigar cigar, double score,
+                                        double[][] dpMatrix, Traceback traceback) {
+        return new AlignmentResult(seq1, seq2, cigar, score, substitutionMatrix, dpMatrix, traceback);
+    }
 
-        matrices.M[0][0] = 0;
-        for (int i = 1; i <= m; i++) { //spalten
-            matrices.M[i][0] = gapOpenPenalty + i * gapExtendPenalty;
-            matrices.F[i][0] = matrices.M[i][0];
-            matrices.E[i][0] = Double.NEGATIVE_INFINITY;
-            matrices.backtrack[i][0] = 1;
+    public static class ScoreResult {
+        public final double score;
+        public final int endI;
+        public final int endJ;
+
+        public ScoreResult(double score, int endI, int endJ) {
+            this.score = score;
+            this.endI = endI;
+            this.endJ = endJ;
         }
-        for (int j = 1; j <= n; j++) { //zeilen
-            matrices.M[0][j] = gapOpenPenalty + j * gapExtendPenalty;
-            matrices.E[0][j] = matrices.M[0][j];
-            matrices.F[0][j] = Double.NEGATIVE_INFINITY;
-            matrices.backtrack[0][j] = 2;
+    }
+
+    // Score-only variants: two rows of M and one of F, no traceback.
+    public ScoreResult globalScore(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.globalScore(seq1, seq2);
+        }
+        return globalScore(substitutionMatrix.encode(seq1), substitutionMatrix.getProfile(seq2), seq2.length());
+    }
+
+    private ScoreResult globalScore(byte[] a, double[][] profile, int n) {
+        int m = a.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] prevM = workspace.row(0, n);
+        double[] currM = workspace.row(1, n);
+        double[] F = workspace.row(2, n);
+
+        prevM[0] = 0;
+        F[0] = Double.NEGATIVE_INFINITY;
+        for (int j = 1; j <= n; j++) {
+            prevM[j] = gapOpenPenalty + j * gapExtendPenalty;
+            F[j] = Double.NEGATIVE_INFINITY;
         }
 
         for (int i = 1; i <= m; i++) {
+            currM[0] = gapOpenPenalty + i * gapExtendPenalty;
+            double E = Double.NEGATIVE_INFINITY;
+            double[] scores = profile[a[i-1]];
             for (int j = 1; j <= n; j++) {
-                double openE = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
-                double extendE = matrices.E[i][j-1] + gapExtendPenalty;
-                matrices.E[i][j] = Math.max(openE, extendE);
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                double match = prevM[j-1] + scores[j-1];
+                currM[j] = Math.max(Math.max(F[j], E), match);
+            }
+            double[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
 
+        return new ScoreResult(prevM[n], m, n);
+    }
 
-                double openF = matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty;
-                double extendF = matrices.F[i-1][j] + gapExtendPenalty;
-                matrices.F[i][j] = Math.max(openF, extendF);
+    public ScoreResult localScore(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.localScore(seq1, seq2);
+        }
+        return localScore(substitutionMatrix.encode(seq1), substitutionMatrix.getProfile(seq2), seq2.length());
+    }
 
+    private ScoreResult localScore(byte[] a, double[][] profile, int n) {
+        int m = a.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] prevM = workspace.row(0, n);
+        double[] currM = workspace.row(1, n);
+        double[] F = workspace.row(2, n);
+        Arrays.fill(prevM, 0, n + 1, 0);
+        Arrays.fill(F, 0, n + 1, Double.NEGATIVE_INFINITY);
 
-                double match = matrices.M[i-1][j-1] + substitutionMatrix.getScore(seq1.charAt(i-1), seq2.charAt(j-1));
+        double maxScore = 0;
+        int maxI = 0, maxJ = 0;
 
-                double maxScore = Double.NEGATIVE_INFINITY;
-                int backtrack = -1;
+        for (int i = 1; i <= m; i++) {
+            currM[0] = 0;
+            double E = Double.NEGATIVE_INFINITY;
+            double[] scores = profile[a[i-1]];
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                double match = prevM[j-1] + scores[j-1];
+                currM[j] = Math.max(0, Math.max(Math.max(match, E), F[j]));
 
-                if (matrices.F[i][j] >= maxScore) {
-                    maxScore = matrices.F[i][j];
-                    backtrack = 1;
+                if (currM[j] > maxScore) {
+                    maxScore = currM[j];
+                    maxI = i;
+                    maxJ = j;
                 }
+            }
+            double[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
 
-                if (matrices.E[i][j] >= maxScore) {
-                    maxScore = matrices.E[i][j];
-                    backtrack = 2;
-                }
+        return new ScoreResult(maxScore, maxI, maxJ);
+    }
 
-                if (match > maxScore) {
-                    maxScore = match;
-                    backtrack = 0;
-                }
+    public ScoreResult freeShiftScore(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.freeShiftScore(seq1, seq2);
+        }
+        return freeShiftScore(substitutionMatrix.encode(seq1), substitutionMatrix.getProfile(seq2), seq2.length());
+    }
+
+    private ScoreResult freeShiftScore(byte[] a, double[][] profile, int n) {
+        int m = a.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] prevM = workspace.row(0, n);
+        double[] currM = workspace.row(1, n);
+        double[] F = workspace.row(2, n);
+        Arrays.fill(prevM, 0, n + 1, 0);
+        Arrays.fill(F, 0, n + 1, Double.NEGATIVE_INFINITY);
 
-                matrices.M[i][j] = maxScore;
-                matrices.backtrack[i][j] = backtrack;
+        // best cell of the last column, scanned in the same order as freeShiftAlignment
+        double colMax = prevM[n];
+        int colI = 0;
+
+        for (int i = 1; i <= m; i++) {
+            currM[0] = 0;
+            double E = Double.NEGATIVE_INFINITY;
+            double[] scores = profile[a[i-1]];
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                double match = prevM[j-1] + scores[j-1];
+                currM[j] = Math.max(Math.max(F[j], E), match);
+            }
+            if (currM[n] > colMax) {
+                colMax = currM[n];
+                colI = i;
             }
+            double[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
         }
 
-        return backtrack(matrices, seq1, seq2, m, n, matrices.M[m][n]);
+        double maxScore = Double.NEGATIVE_INFINITY;
+        int maxI = m, maxJ = n;
+        for (int j = 0; j <= n; j++) {
+            if (prevM[j] > maxScore) {
+                maxScore = prevM[j];
+                maxJ = j;
+            }
+        }
+        if (colMax > maxScore) {
+            maxScore = colMax;
+            maxI = colI;
+            maxJ = n;
+        }
+
+        return new ScoreResult(maxScore, maxI, maxJ);
     }
 
-    public AlignmentResult localAlignment(String seq1, String seq2) {
+    // Scoring one query against many targets: the profile is built once from the query and each
+    // target is only encoded (or arrives encoded, in the byte[] overloads). The kernels then run on the transposed matrix (target along i, query
+    // along j), which holds the same cell values, so the scores equal those of globalScore(query, target)
+    // etc.; the end cell is swapped back into query/target coordinates.
+    public double[][] getQueryProfile(String query) {
+        return substitutionMatrix.getTransposedProfile(substitutionMatrix.encode(query));
+    }
+
+    public ScoreResult globalScore(String query, double[][] queryProfile, String target) {
+        if (quantized(query, target)) {
+            return quantizedKernels.globalScore(query, target);
+        }
+        return transposed(globalScore(substitutionMatrix.encode(target), queryProfile, query.length()));
+    }
+
+    public ScoreResult globalScore(byte[] query, double[][] queryProfile, byte[] target) {
+        if (quantized(query.length, target.length)) {
+            return quantizedKernels.globalScore(query, target);
+        }
+        return transposed(globalScore(target, queryProfile, query.length));
+    }
+
+    public ScoreResult localScore(String query, double[][] queryProfile, String target) {
+        if (quantized(query, target)) {
+            return quantizedKernels.localScore(query, target);
+        }
+        return transposed(localScore(substitutionMatrix.encode(target), queryProfile, query.length()));
+    }
+
+    public ScoreResult localScore(byte[] query, double[][] queryProfile, byte[] target) {
+        if (quantized(query.length, target.length)) {
+            return quantizedKernels.localScore(query, target);
+        }
+        return transposed(localScore(target, queryProfile, query.length));
+    }
+
+    public ScoreResult freeShiftScore(String query, double[][] queryProfile, String target) {
+        if (quantized(query, target)) {
+            return quantizedKernels.freeShiftScore(query, target);
+        }
+        return transposed(freeShiftScore(substitutionMatrix.encode(target), queryProfile, query.length()));
+    }
+
+    public ScoreResult freeShiftScore(byte[] query, double[][] queryProfile, byte[] target) {
+        if (quantized(query.length, target.length)) {
+            return quantizedKernels.freeShiftScore(query, target);
+        }
+        return transposed(freeShiftScore(target, queryProfile, query.length));
+    }
+
+    private static ScoreResult transposed(ScoreResult result) {
+        return new ScoreResult(result.score, result.endJ, result.endI);
+    }
+
+    // M is kept flat in the thread's DPWorkspace, row-major with stride n+1
+    public AlignmentResult globalAlignment(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.globalAlignment(seq1, seq2);
+        }
         int m = seq1.length();
         int n = seq2.length();
-        GotohMatrices matrices = new GotohMatrices(m, n);
-        for (int i = 0; i <= m; i++) {
-            matrices.M[i][0] = 0;
-            matrices.E[i][0] = Double.NEGATIVE_INFINITY;
-            matrices.F[i][0] = Double.NEGATIVE_INFINITY;
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] M = workspace.matrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+
+        M[0] = 0;
+        for (int i = 1; i <= m; i++) { //spalten
+            M[i * (n + 1)] = gapOpenPenalty + i * gapExtendPenalty;
+            traceback.set(i, 0, Traceback.FROM_F);
         }
-        for (int j = 0; j <= n; j++) {
-            matrices.M[0][j] = 0;
-            matrices.E[0][j] = Double.NEGATIVE_INFINITY;
-            matrices.F[0][j] = Double.NEGATIVE_INFINITY;
+        for (int j = 1; j <= n; j++) { //zeilen
+            M[j] = gapOpenPenalty + j * gapExtendPenalty;
+            traceback.set(0, j, Traceback.FROM_E);
         }
 
-        double maxScore = 0;
-        int maxI = 0, maxJ = 0;
+        fill(M, traceback, seq1, seq2);
+        return backtrack(M, traceback, seq1, seq2, m, n, M[m * (n + 1) + n]);
+    }
 
-        for (int i = 1; i <= m; i++) {
+    // Global/freeshift recurrence with E and F kept per row; the first row and column of M are
+    // initialised by the caller. Each cell records its traceback code in traceback.
+    private void fill(double[] M, Traceback traceback, String seq1, String seq2) {
+        int n = seq2.length();
+        int width = n + 1;
+        byte[] a = substitutionMatrix.encode(seq1);
+        double[][] profile = substitutionMatrix.getProfile(seq2);
+        double[] F = DPWorkspace.get().row(0, n);
+        Arrays.fill(F, 0, width, Double.NEGATIVE_INFINITY);
+
+        for (int i = 1; i <= seq1.length(); i++) {
+            double[] scores = profile[a[i-1]];
+            int row = i * width;
+            int above = row - width;
+            double E = Double.NEGATIVE_INFINITY;
             for (int j = 1; j <= n; j++) {
-                matrices.E[i][j] = Math.max(
-                    matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty,
-                    matrices.E[i][j-1] + gapExtendPenalty
-                );
+                double openE = M[row + j - 1] + gapOpenPenalty + gapExtendPenalty;
+                E = Math.max(openE, E + gapExtendPenalty);
 
-                matrices.F[i][j] = Math.max(
-                    matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty,
-                    matrices.F[i-1][j] + gapExtendPenalty
-                );
+                double openF = M[above + j] + gapOpenPenalty + gapExtendPenalty;
+                F[j] = Math.max(openF, F[j] + gapExtendPenalty);
 
-                double match = matrices.M[i-1][j-1] + substitutionMatrix.getScore(seq1.charAt(i-1), seq2.charAt(j-1));
-                matrices.M[i][j] = Math.max(0, Math.max(Math.max(match, matrices.E[i][j]), matrices.F[i][j]));
+                double match = M[above + j - 1] + scores[j-1];
 
-                if (matrices.M[i][j] > maxScore) {
-                    maxScore = matrices.M[i][j];
-                    maxI = i;
-                    maxJ = j;
+                double maxScore = F[j];
+                if (E >= maxScore) {
+                    maxScore = E;
                 }
-
-                if (matrices.M[i][j] == 0) matrices.backtrack[i][j] = 3;
-                else if (matrices.M[i][j] == match) matrices.backtrack[i][j] = 0;
-                else if (matrices.M[i][j] == matrices.F[i][j]) matrices.backtrack[i][j] = 1;
-                else matrices.backtrack[i][j] = 2;
+                if (match > maxScore) {
+                    maxScore = match;
+                }
+                M[row + j] = maxScore;
+                traceback.set(i, j, tracebackCode(maxScore, E, F[j], openE, openF, false));
             }
         }
+    }
 
-        return backtrackLocal(matrices, seq1, seq2, maxI, maxJ, maxScore);
+    // Same tie order and tolerance as the traceback used to apply when re-deriving the path:
+    // vertical gap before horizontal gap before diagonal, opening preferred over extending.
+    static int tracebackCode(double h, double e, double f, double openE, double openF, boolean local) {
+        int code;
+        if (h - f < TRACEBACK_TOLERANCE) {
+            code = Traceback.FROM_F;
+        } else if (h - e < TRACEBACK_TOLERANCE) {
+            code = Traceback.FROM_E;
+        } else if (local && h == 0) {
+            code = Traceback.STOP;
+        } else {
+            code = Traceback.DIAGONAL;
+        }
+        if (e - openE < TRACEBACK_TOLERANCE) {
+            code |= Traceback.E_OPEN;
+        }
+        if (f - openF < TRACEBACK_TOLERANCE) {
+            code |= Traceback.F_OPEN;
+        }
+        return code;
     }
 
-    public AlignmentResult freeShiftAlignment(String seq1, String seq2) {
+    public AlignmentResult localAlignment(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.localAlignment(seq1, seq2);
+        }
         int m = seq1.length();
         int n = seq2.length();
-        GotohMatrices matrices = new GotohMatrices(m, n);
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] M = workspace.matrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+        int[] max = fillLocal(M, traceback, seq1, seq2);
 
-        for (int i = 0; i <= m; i++) {
-            matrices.M[i][0] = 0;
-            matrices.E[i][0] = Double.NEGATIVE_INFINITY;
-            matrices.F[i][0] = Double.NEGATIVE_INFINITY;
-        }
-        for (int j = 0; j <= n; j++) {
-            matrices.M[0][j] = 0;
-            matrices.E[0][j] = Double.NEGATIVE_INFINITY;
-            matrices.F[0][j] = Double.NEGATIVE_INFINITY;
-        }
-        for (int i = 1; i <= m; i++) {
-            for (int j = 1; j <= n; j++) {
-                double openE = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
-                double extendE = matrices.E[i][j-1] + gapExtendPenalty;
-                matrices.E[i][j] = Math.max(openE, extendE);
+        return backtrackLocal(M, traceback, seq1, seq2, 0, 0, max[0], max[1], M[max[0] * (n + 1) + max[1]]);
+    }
 
+    // Local recurrence including the zero borders of M; returns the first cell holding the
+    // maximum in row-major order
+    private int[] fillLocal(double[] M, Traceback traceback, String seq1, String seq2) {
+        int n = seq2.length();
+        int width = n + 1;
+        byte[] a = substitutionMatrix.encode(seq1);
+        double[][] profile = substitutionMatrix.getProfile(seq2);
+        double[] F = DPWorkspace.get().row(0, n);
+        Arrays.fill(F, 0, width, Double.NEGATIVE_INFINITY);
+        Arrays.fill(M, 0, width, 0);
 
-                double openF = matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty;
-                double extendF = matrices.F[i-1][j] + gapExtendPenalty;
-                matrices.F[i][j] = Math.max(openF, extendF);
+        double maxScore = 0;
+        int maxI = 0, maxJ = 0;
 
-                double match = matrices.M[i-1][j-1] + substitutionMatrix.getScore(seq1.charAt(i-1), seq2.charAt(j-1));
+        for (int i = 1; i <= seq1.length(); i++) {
+            double[] scores = profile[a[i-1]];
+            int row = i * width;
+            int above = row - width;
+            M[row] = 0;
+            double E = Double.NEGATIVE_INFINITY;
+            for (int j = 1; j <= n; j++) {
+                double openE = M[row + j - 1] + gapOpenPenalty + gapExtendPenalty;
+                E = Math.max(openE, E + gapExtendPenalty);
 
-                double maxScore = Double.NEGATIVE_INFINITY;
-                int backtrack = -1;
+                double openF = M[above + j] + gapOpenPenalty + gapExtendPenalty;
+                F[j] = Math.max(openF, F[j] + gapExtendPenalty);
 
-                if (matrices.F[i][j] >= maxScore) {
-                    maxScore = matrices.F[i][j];
-                    backtrack = 1;
-                }
+                double match = M[above + j - 1] + scores[j-1];
+                double h = Math.max(0, Math.max(Math.max(match, E), F[j]));
+                M[row + j] = h;
 
-                if (matrices.E[i][j] >= maxScore) {
-                    maxScore = matrices.E[i][j];
-                    backtrack = 2;
+                if (h > maxScore) {
+                    maxScore = h;
+                    maxI = i;
+                    maxJ = j;
                 }
+                traceback.set(i, j, tracebackCode(h, E, F[j], openE, openF, true));
+            }
+        }
+        return new int[]{maxI, maxJ};
+    }
 
-                if (match > maxScore) {
-                    maxScore = match;
-                    backtrack = 0;
-                }
+    // Forward score pass for the end cell, reverse score pass for the start cell,
+    // then a full Gotoh traceback restricted to the rectangle between them.
+    public AlignmentResult localAlignmentCheckpointed(String seq1, String seq2) {
+        ScoreResult end = localScore(seq1, seq2);
+        int[] start = localStart(seq1, seq2, end.endI, end.endJ, end.score);
+        String sub1 = seq1.substring(start[0], end.endI);
+        String sub2 = seq2.substring(start[1], end.endJ);
+        int m = sub1.length();
+        int n = sub2.length();
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] M = workspace.matrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+        fillLocal(M, traceback, sub1, sub2);
+
+        return backtrackLocal(M, traceback, seq1, seq2, start[0], start[1], m, n, end.score);
+    }
 
-                matrices.M[i][j] = maxScore;
-                matrices.backtrack[i][j] = backtrack;
+    // Aligns the reversed prefixes anchored at (endI, endJ) and returns the nearest start
+    // cell from which the local score is reached again.
+    private int[] localStart(String seq1, String seq2, int endI, int endJ, double score) {
+        if (score <= TRACEBACK_TOLERANCE) {
+            return new int[]{endI, endJ};
+        }
+        byte[] a = substitutionMatrix.encode(seq1.substring(0, endI));
+        double[][] profile = substitutionMatrix.getProfile(seq2.substring(0, endJ));
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] prevM = workspace.row(0, endJ);
+        double[] currM = workspace.row(1, endJ);
+        double[] F = workspace.row(2, endJ);
+        Arrays.fill(prevM, 0, endJ + 1, Double.NEGATIVE_INFINITY);
+        Arrays.fill(F, 0, endJ + 1, Double.NEGATIVE_INFINITY);
+        prevM[0] = 0;
+
+        for (int i = 1; i <= endI; i++) {
+            currM[0] = Double.NEGATIVE_INFINITY;
+            double E = Double.NEGATIVE_INFINITY;
+            double[] scores = profile[a[endI - i]];
+            for (int j = 1; j <= endJ; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                double match = prevM[j-1] + scores[endJ - j];
+                currM[j] = Math.max(Math.max(F[j], E), match);
+
+                if (currM[j] > score - TRACEBACK_TOLERANCE) {
+                    return new int[]{endI - i, endJ - j};
+                }
             }
+            double[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
+
+        return new int[]{0, 0};
+    }
+
+    public AlignmentResult freeShiftAlignment(String seq1, String seq2) {
+        if (quantized(seq1, seq2)) {
+            return quantizedKernels.freeShiftAlignment(seq1, seq2);
+        }
+        int m = seq1.length();
+        int n = seq2.length();
+        int width = n + 1;
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] M = workspace.matrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+        Arrays.fill(M, 0, width, 0);
+        for (int i = 1; i <= m; i++) {
+            M[i * width] = 0;
         }
+        fill(M, traceback, seq1, seq2);
 
         double maxScore = Double.NEGATIVE_INFINITY;
         int maxI = m, maxJ = n;
 
 
         for (int j = 0; j <= n; j++) {
-            if (matrices.M[m][j] > maxScore) {
-                maxScore = matrices.M[m][j];
+            if (M[m * width + j] > maxScore) {
+                maxScore = M[m * width + j];
                 maxI = m;
                 maxJ = j;
             }
         }
 
         for (int i = 0; i <= m; i++) {
-            if (matrices.M[i][n] > maxScore) {
-                maxScore = matrices.M[i][n];
+            if (M[i * width + n] > maxScore) {
+                maxScore = M[i * width + n];
                 maxI = i;
                 maxJ = n;
             }
         }
 
-        return backtrackFreeshift(matrices, seq1, seq2, maxI, maxJ, maxScore);
+        return backtrackFreeshift(M, traceback, seq1, seq2, maxI, maxJ, maxScore);
     }
 
-    private AlignmentResult backtrack(GotohMatrices matrices, String seq1, String seq2, 
+    private AlignmentResult backtrack(double[] M, Traceback traceback, String seq1, String seq2,
                                     int i, int j, double score) {
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
-        String currentMatrix = "M";
-        
-        while (i > 0 || j > 0) {
-            if (i > 0 && j > 0) {
-                if (currentMatrix.equals("M")) {
-                    if (Math.abs(matrices.M[i][j] - matrices.F[i][j]) < 0.0001) {
-                        currentMatrix = "F";
-                    } else if (Math.abs(matrices.M[i][j] - matrices.E[i][j]) < 0.0001) {
-                        currentMatrix = "E";
-                    } else {
-                        align1.insert(0, seq1.charAt(i-1));
-                        align2.insert(0, seq2.charAt(j-1));
-                        i--; j--;
-                        continue;
-                    }
-                }
-                
-                if (currentMatrix.equals("F")) {
-                    double gapOpenScore = matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty;
-                    double gapExtendScore = matrices.F[i-1][j] + gapExtendPenalty;
-                    
-                    align1.insert(0, seq1.charAt(i-1));
-                    align2.insert(0, '-');
-                    i--;
-                    
-                    if (Math.abs(matrices.F[i+1][j] - gapOpenScore) < 0.0001) {
-                        currentMatrix = "M";
-                    }
-                    continue;
-                }
-                
-                if (currentMatrix.equals("E")) {
-                    double gapOpenScore = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
-                    double gapExtendScore = matrices.E[i][j-1] + gapExtendPenalty;
-                    
-                    align1.insert(0, '-');
-                    align2.insert(0, seq2.charAt(j-1));
-                    j--;
-                    
-                    if (Math.abs(matrices.E[i][j+1] - gapOpenScore) < 0.0001) {
-                        currentMatrix = "M";
-                    }
-                    continue;
-                }
-            }
+        Cigar.Builder path = new Cigar.Builder();
+        int[] end = traceback.walk(i, j, path);
+        path.add(Cigar.DELETION, end[0]);
+        path.add(Cigar.INSERTION, end[1]);
 
-            if (i > 0) {
-                align1.insert(0, seq1.charAt(i-1));
-                align2.insert(0, '-');
-                i--;
-            } else if (j > 0) {
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j-1));
-                j--;
-            }
-        }
-
-        return new AlignmentResult(align1.toString(), align2.toString(), score, 
-                                 matrices.M, matrices.backtrack);
+        return createResult(seq1, seq2, path.buildReversed(), score,
+                                 capturedMatrix(M, traceback), capturedTraceback(traceback));
     }
 
-    private AlignmentResult backtrackLocal(GotohMatrices matrices, String seq1, String seq2,
-                                         int maxI, int maxJ, double score) {
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
-        int i = maxI, j = maxJ;
-        String currentMatrix = "M";
+    // M and traceback may cover a sub-rectangle of the sequences starting at (offsetI, offsetJ)
+    private AlignmentResult backtrackLocal(double[] M, Traceback traceback, String seq1, String seq2,
+                                         int offsetI, int offsetJ, int maxI, int maxJ, double score) {
+        Cigar.Builder path = new Cigar.Builder();
+        int[] start = traceback.walk(maxI, maxJ, path);
 
-        while (i > 0 && j > 0) {
-            if (currentMatrix.equals("M")) {
-                if (Math.abs(matrices.M[i][j] - matrices.F[i][j]) < 0.0001) {
-                    currentMatrix = "F";
-                } else if (Math.abs(matrices.M[i][j] - matrices.E[i][j]) < 0.0001) {
-                    currentMatrix = "E";
-                } else if (matrices.M[i][j] == 0) {
-                    break;
-                } else {
-                    align1.insert(0, seq1.charAt(i-1));
-                    align2.insert(0, seq2.charAt(j-1));
-                    i--; j--;
-                    continue;
-                }
-            }
-            
-            if (currentMatrix.equals("F")) {
-                double gapOpenScore = matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty;
-                double gapExtendScore = matrices.F[i-1][j] + gapExtendPenalty;
-                
-                align1.insert(0, seq1.charAt(i-1));
-                align2.insert(0, '-');
-                i--;
-                
-                if (Math.abs(matrices.F[i+1][j] - gapOpenScore) < 0.0001) {
-                    currentMatrix = "M";
-                }
-                continue;
-            }
-            
-            if (currentMatrix.equals("E")) {
-                double gapOpenScore = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
-                double gapExtendScore = matrices.E[i][j-1] + gapExtendPenalty;
-                
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j-1));
-                j--;
-                
-                if (Math.abs(matrices.E[i][j+1] - gapOpenScore) < 0.0001) {
-                    currentMatrix = "M";
-                }
-                continue;
-            }
-        }
-
-        StringBuilder completeAlign1 = new StringBuilder();
-        StringBuilder completeAlign2 = new StringBuilder();
-
-        if (i > 0) {
-            completeAlign1.append(seq1.substring(0, i));
-            completeAlign2.append("-".repeat(i));
-        }
-
-        completeAlign1.append(align1);
-        completeAlign2.append(align2);
-
-        if (maxI < seq1.length()) {
-            completeAlign1.append(seq1.substring(maxI));
-            completeAlign2.append("-".repeat(seq1.length() - maxI));
-        }
+        Cigar cigar = padLocal(seq1.length(), seq2.length(), path.buildReversed(),
+                               offsetI + start[0], offsetJ + start[1], offsetI + maxI, offsetJ + maxJ);
+        return createResult(seq1, seq2, cigar, score,
+                                 capturedMatrix(M, traceback), capturedTraceback(traceback));
+    }
 
-        if (j > 0) {
-            completeAlign1.insert(0, "-".repeat(j));
-            completeAlign2.insert(0, seq2.substring(0, j));
-        }
+    private AlignmentResult backtrackFreeshift(double[] M, Traceback traceback, String seq1, String seq2,
+                                             int maxI, int maxJ, double score) {
+        Cigar.Builder path = new Cigar.Builder();
+        int[] start = traceback.walk(maxI, maxJ, path);
 
-        if (maxJ < seq2.length()) {
-            completeAlign1.append("-".repeat(seq2.length() - maxJ));
-            completeAlign2.append(seq2.substring(maxJ));
-        }
+        Cigar cigar = padFreeshift(seq1.length(), seq2.length(), path.buildReversed(),
+                                   start[0], start[1], maxI, maxJ);
+        return createResult(seq1, seq2, cigar, score,
+                                 capturedMatrix(M, traceback), capturedTraceback(traceback));
+    }
 
-        int maxLength = Math.max(completeAlign1.length(), completeAlign2.length());
-        while (completeAlign1.length() < maxLength) {
-            completeAlign1.append("-");
+    // The workspace is reused by the next alignment, so results only keep copies, and only on request
+    double[][] capturedMatrix(double[] M, Traceback traceback) {
+        if (!captureMatrices) {
+            return null;
         }
-        while (completeAlign2.length() < maxLength) {
-            completeAlign2.append("-");
+        int rows = traceback.rows();
+        int columns = traceback.columns();
+        double[][] matrix = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            matrix[i] = Arrays.copyOfRange(M, i * columns, (i + 1) * columns);
         }
+        return matrix;
+    }
 
-        return new AlignmentResult(completeAlign1.toString(), completeAlign2.toString(), score,
-                                 matrices.M, matrices.backtrack);
+    Traceback capturedTraceback(Traceback traceback) {
+        return captureMatrices ? traceback.copy() : null;
     }
 
-    private AlignmentResult backtrackFreeshift(GotohMatrices matrices, String seq1, String seq2,
-                                             int maxI, int maxJ, double score) {
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
-        int i = maxI, j = maxJ;
-        String currentMatrix = "M";
-
-        if (j < seq2.length()) {
-            align1.append("-".repeat(seq2.length() - j));
-            align2.append(seq2.substring(j));
-        } else if (i < seq1.length()) {
-            align1.append(seq1.substring(i));
-            align2.append("-".repeat(seq1.length() - i));
-        }
-
-        while (i > 0 && j > 0) {
-            if (currentMatrix.equals("M")) {
-                if (Math.abs(matrices.M[i][j] - matrices.F[i][j]) < 0.0001) {
-                    currentMatrix = "F";
-                } else if (Math.abs(matrices.M[i][j] - matrices.E[i][j]) < 0.0001) {
-                    currentMatrix = "E";
-                } else if (i==0 || j==0) {
-                    break;
-                } else {
-                    align1.insert(0, seq1.charAt(i-1));
-                    align2.insert(0, seq2.charAt(j-1));
-                    i--; j--;
-                    continue;
-                }
-            }
-            
-            if (currentMatrix.equals("F")) {
-                double gapOpenScore = matrices.M[i-1][j] + gapOpenPenalty + gapExtendPenalty;
-                double gapExtendScore = matrices.F[i-1][j] + gapExtendPenalty;
-                
-                align1.insert(0, seq1.charAt(i-1));
-                align2.insert(0, '-');
-                i--;
-                
-                if (Math.abs(matrices.F[i+1][j] - gapOpenScore) < 0.0001) {
-                    currentMatrix = "M";
-                }
-                continue;
-            }
-            
-            if (currentMatrix.equals("E")) {
-                double gapOpenScore = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
-                double gapExtendScore = matrices.E[i][j-1] + gapExtendPenalty;
-                
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j-1));
-                j--;
-                
-                if (Math.abs(matrices.E[i][j+1] - gapOpenScore) < 0.0001) {
-                    currentMatrix = "M";
-                }
-                continue;
-            }
-        }
+    // Surrounds a local core alignment (seq1[i..maxI) vs seq2[j..maxJ)) with the unaligned flanks:
+    // the seq2 prefix, the seq1 prefix, the core, the seq1 suffix, the seq2 suffix
+    static Cigar padLocal(int m, int n, Cigar core, int i, int j, int maxI, int maxJ) {
+        return new Cigar.Builder()
+                .add(Cigar.INSERTION, j)
+                .add(Cigar.DELETION, i)
+                .add(core)
+                .add(Cigar.DELETION, m - maxI)
+                .add(Cigar.INSERTION, n - maxJ)
+                .build();
+    }
 
+    // Adds the free end gaps around a freeshift core alignment (seq1[i..maxI) vs seq2[j..maxJ))
+    static Cigar padFreeshift(int m, int n, Cigar core, int i, int j, int maxI, int maxJ) {
+        Cigar.Builder complete = new Cigar.Builder();
         if (i > 0) {
-            align1.insert(0, seq1.substring(0, i));
-            align2.insert(0, "-".repeat(i));
-        } else if (j > 0) {
-            align1.insert(0, "-".repeat(j));
-            align2.insert(0, seq2.substring(0, j));
+            complete.add(Cigar.DELETION, i);
+        } else {
+            complete.add(Cigar.INSERTION, j);
         }
-
-        return new AlignmentResult(align1.toString(), align2.toString(), score,
-                                 matrices.M, matrices.backtrack);
+        complete.add(core);
+        if (maxJ < n) {
+            complete.add(Cigar.INSERTION, n - maxJ);
+        } else {
+            complete.add(Cigar.DELETION, m - maxI);
+        }
+        return complete.build();
     }
 
     public double getGapOpenPenalty() {
@@ -485,6 +711,18 @@ public class AlignmentAlgorithm {
         return substitutionMatrix.getScore(aa1, aa2);
     }
 
+    public byte[] encode(String seq) {
+        return substitutionMatrix.encode(seq);
+    }
+
+    public byte[] encode(ByteBuffer residues) {
+        return substitutionMatrix.encode(residues);
+    }
+
+    public double[][] getProfile(String seq) {
+        return substitutionMatrix.getProfile(seq);
+    }
+
     private String padWithGaps(String seq, int targetLength, boolean padEnd) {
         if (seq.length() >= targetLength) return seq;
         String gaps = "-".repeat(targetLength - seq.length());
@@ -535,6 +773,8 @@ public class AlignmentAlgorithm {
     public GotohMatrices getAlignmentMatrices(String seq1, String seq2) {
         int m = seq1.length();
         int n = seq2.length();
+        byte[] a = substitutionMatrix.encode(seq1);
+        double[][] profile = substitutionMatrix.getProfile(seq2);
         GotohMatrices matrices = new GotohMatrices(m, n);
 
         for (int i = 0; i <= m; i++) {
@@ -549,6 +789,7 @@ public class AlignmentAlgorithm {
         }
 
         for (int i = 1; i <= m; i++) {
+            double[] scores = profile[a[i-1]];
             for (int j = 1; j <= n; j++) {
                 double openE = matrices.M[i][j-1] + gapOpenPenalty + gapExtendPenalty;
                 double extendE = matrices.E[i][j-1] + gapExtendPenalty;
@@ -558,7 +799,7 @@ public class AlignmentAlgorithm {
                 double extendF = matrices.F[i-1][j] + gapExtendPenalty;
                 matrices.F[i][j] = Math.max(openF, extendF);
 
-                double match = matrices.M[i-1][j-1] + substitutionMatrix.getScore(seq1.charAt(i-1), seq2.charAt(j-1));
+                double match = matrices.M[i-1][j-1] + scores[j-1];
 
                 matrices.M[i][j] =  Math.max(match, Math.max(matrices.E[i][j], matrices.F[i][j]));
             }
@@ -25,7 +25,7 @@ public class AlignmentMetrics {
         }
     }
 
-    private static class Metrics {
+    static class Metrics {
         double sensitivity;
         double specificity;
         double coverage;
@@ -124,222 +124,66 @@ public class AlignmentMetrics {
 
     private static Metrics calculateMetrics(String predSeq1, String predSeq2, 
                                          String refSeq1, String refSeq2) {
+        return calculateMetrics(Cigar.fromGapped(predSeq1, predSeq2), Cigar.fromGapped(refSeq1, refSeq2));
+    }
+
+    // Works on the residue pairs of both alignments, so predicted alignments coming straight out of
+    // the aligner never need to be expanded into gapped strings
+    static Metrics calculateMetrics(Cigar predicted, Cigar reference) {
+        int[] pred1 = predicted.partners1();
+        int[] pred2 = predicted.partners2();
+        int[] ref1 = reference.partners1();
+        int[] ref2 = reference.partners2();
+
         int tp = 0;
         int fp = 0;
         int fn = 0;
-        double totalShift = 0;
-        double totalInverseShift = 0;
-
-        int[] pred1Indices = new int[predSeq1.length() + 1]; //index ohne gaps
-        int[] pred2Indices = new int[predSeq2.length() + 1];
-        int[] ref1Indices = new int[refSeq1.length() + 1];
-        int[] ref2Indices = new int[refSeq2.length() + 1];
-        
-        int pred1Count = 0, pred2Count = 0;
-        for (int i = 0; i < predSeq1.length(); i++) {
-            if (predSeq1.charAt(i) != '-') pred1Indices[pred1Count++] = i;
-            if (predSeq2.charAt(i) != '-') pred2Indices[pred2Count++] = i;
-        }
-        
-        int ref1Count = 0, ref2Count = 0;
-        for (int i = 0; i < refSeq1.length(); i++) {
-            if (refSeq1.charAt(i) != '-') ref1Indices[ref1Count++] = i;
-            if (refSeq2.charAt(i) != '-') ref2Indices[ref2Count++] = i;
-        }
-
-        boolean[][] predAligned = new boolean[pred1Count][pred2Count];
-        boolean[][] refAligned = new boolean[ref1Count][ref2Count];
-        char[] TargetNoGaps = new char[refSeq2.length()];
-        char[] TemplateNoGaps = new char[refSeq2.length()];
-        int refCount = 0;
-        for (int i = 0; i < refSeq2.length(); i++) {
-            if (refSeq2.charAt(i) != '-') {
-                TargetNoGaps[refCount++] = refSeq2.charAt(i);
-            }
-        }
-        refCount = 0;
-        for (int i = 0; i < refSeq1.length(); i++) {
-            if (refSeq1.charAt(i) != '-') {
-                TemplateNoGaps[refCount++] = refSeq1.charAt(i);
-            }
-        }
-        
-
-        for (int i = 0; i < pred1Count; i++) {
-            for (int j = 0; j < pred2Count; j++) {
-                if (pred1Indices[i] == pred2Indices[j]) {
-                    predAligned[i][j] = true;
-                }
-            }
-        }
-
-        for (int i = 0; i < ref1Count; i++) {
-            for (int j = 0; j < ref2Count; j++) {
-                if (ref1Indices[i] == ref2Indices[j]) {
-                    refAligned[i][j] = true;
-                }
+        for (int i = 0; i < pred1.length; i++) {
+            int j = pred1[i];
+            if (j < 0) continue;
+            if (i < ref1.length && ref1[i] == j) {
+                tp++;
+            } else {
+                fp++;
             }
         }
-
-        for (int i = 0; i < pred1Count; i++) {
-            for (int j = 0; j < pred2Count; j++) {
-                if (predAligned[i][j]) {
-                    if (i < ref1Count && j < ref2Count && refAligned[i][j]) {
-                        tp++;
-                        int templateShift = Math.abs(pred1Indices[i] - ref1Indices[i]);
-                        totalShift += templateShift;
-                        int targetShift = Math.abs(pred2Indices[j] - ref2Indices[j]);
-                        totalInverseShift += targetShift;
-                    } else {
-                        fp++;
-                    }
-                }
+        for (int i = 0; i < ref1.length; i++) {
+            int j = ref1[i];
+            if (j < 0) continue;
+            if (i >= pred1.length || j >= pred2.length || pred1[i] != j) {
+                fn++;
             }
         }
 
-        for (int i = 0; i < ref1Count; i++) {
-            for (int j = 0; j < ref2Count; j++) {
-                if (refAligned[i][j]) {
-                    if (i >= pred1Count || j >= pred2Count || !predAligned[i][j]) {
-                        fn++;
-                    }
-                }
-            }
-        }
-        
+        // coverage and shift per target residue, shift error also per template residue
         int coverageCount = 0;
-        int[] refAli = new int[TargetNoGaps.length];
-        int k = 0;
-        for (int i = 0; i < refSeq2.length(); i++) {
-             if (refSeq2.charAt(i) != '-'){
-                 if(refSeq1.charAt(i) != '-'){
-                     refAli[i-k] = 1;
-                 }
-             } else {
-                 k++;
-             }
-        }
-        int[] predAli = new int[TargetNoGaps.length];
         int countPredAli = 0;
-        k = 0;
-        for (int i = 0; i < predSeq2.length(); i++) {
-            if (predSeq2.charAt(i) != '-'){
-                if(predSeq1.charAt(i) != '-'){
-                    predAli[i-k] = 1;
-                }
-            } else {
-                k++;
-            }
-        }
-        for (int i = 0; i < predAli.length; i++) {
-            if (predAli[i] == 1) {
-                countPredAli++;
-            }
-        }
-        for (int i = 0; i < predAli.length; i++) {
-            if (predAli[i] == 1 && refAli[i]== 1) {
-                coverageCount++;
-            }
-        }
-        int[] refAliChar = new int[TargetNoGaps.length];
-        int[] predAliChar = new int[TargetNoGaps.length];
-        for (int i = 0; i < TargetNoGaps.length; i++) {
-            refAliChar[i] = -1;
-            predAliChar[i] = -1;
-        }
-        k = 0;
-        for (int i = 0; i < refSeq2.length(); i++) {
-            if (refSeq2.charAt(i) != '-') {
-                if (refSeq1.charAt(i) != '-') {
-                    int pos = 0;
-                    for (int j = 0; j < i; j++) {
-                        if (refSeq1.charAt(j) != '-') pos++;
-                    }
-                    refAliChar[k] = pos;
-                }
-                k++;
-            }
-        }
-        k = 0;
-        for (int i = 0; i < predSeq2.length(); i++) {
-            if (predSeq2.charAt(i) != '-') {
-                if (predSeq1.charAt(i) != '-') {
-                    int pos = 0;
-                    for (int j = 0; j < i; j++) {
-                        if (predSeq1.charAt(j) != '-') pos++;
-                    }
-                    predAliChar[k] = pos;
-                }
-                k++;
-            }
-        }
-        int[] shifts = new int[TargetNoGaps.length];
+        double totalShift = 0;
         int countShift = 0;
-        for (int i = 0; i < TargetNoGaps.length; i++) {
-            if (refAliChar[i] != -1 && predAliChar[i] != -1) {
-                shifts[countShift] = Math.abs(refAliChar[i] - predAliChar[i]);
+        for (int t = 0; t < pred2.length; t++) {
+            if (pred2[t] < 0) continue;
+            countPredAli++;
+            if (t < ref2.length && ref2[t] >= 0) {
+                coverageCount++;
+                totalShift += Math.abs(ref2[t] - pred2[t]);
                 countShift++;
             }
         }
-        totalShift = 0;
-        for (int i = 0; i < countShift; i++) {
-            totalShift += shifts[i];
-        }
         double meanShiftError = countShift > 0 ? totalShift / countShift : 0;
 
-        int[] refTargetAliChar = new int[TargetNoGaps.length];
-        int[] predTargetAliChar = new int[TargetNoGaps.length];
-        for (int i = 0; i < TargetNoGaps.length; i++) {
-            refTargetAliChar[i] = -1;
-            predTargetAliChar[i] = -1;
-        }
-
-        k = 0;
-        for (int i = 0; i < refSeq1.length(); i++) {
-            if (refSeq1.charAt(i) != '-') {
-                if (refSeq2.charAt(i) != '-') {
-                    int pos = 0;
-                    for (int j = 0; j < i; j++) {
-                        if (refSeq2.charAt(j) != '-') pos++;
-                    }
-                    refTargetAliChar[k] = pos;
-                }
-                k++;
-            }
-        }
-
-        k = 0;
-        for (int i = 0; i < predSeq1.length(); i++) {
-            if (predSeq1.charAt(i) != '-') {
-                if (predSeq2.charAt(i) != '-') {
-                    int pos = 0;
-                    for (int j = 0; j < i; j++) {
-                        if (predSeq2.charAt(j) != '-') pos++;
-                    }
-                    predTargetAliChar[k] = pos;
-                }
-                k++;
-            }
-        }
-
-        int[] inverseShifts = new int[TargetNoGaps.length];
+        double totalInverseShift = 0;
         int countInverseShift = 0;
-        for (int i = 0; i < TargetNoGaps.length; i++) {
-            if (refTargetAliChar[i] != -1 && predTargetAliChar[i] != -1) {
-                inverseShifts[countInverseShift] = Math.abs(refTargetAliChar[i] - predTargetAliChar[i]);
+        for (int t = 0; t < pred1.length && t < ref1.length; t++) {
+            if (ref1[t] >= 0 && pred1[t] >= 0) {
+                totalInverseShift += Math.abs(ref1[t] - pred1[t]);
                 countInverseShift++;
             }
         }
-
-        totalInverseShift = 0;
-        for (int i = 0; i < countInverseShift; i++) {
-            totalInverseShift += inverseShifts[i];
-        }
         double inverseMeanShiftError = countInverseShift > 0 ? totalInverseShift / countInverseShift : 0;
 
         double sensitivity = (tp + fn) > 0 ? (double) tp / (tp + fn) : 0;
         double specificity = (tp + fp) > 0 ? (double) tp / (tp + fp) : 0;
-        double coverage = pred2Count > 0 ? (double) coverageCount / countPredAli : 0;
+        double coverage = pred2.length > 0 ? (double) coverageCount / countPredAli : 0;
 
         return new Metrics(sensitivity, specificity, coverage, meanShiftError, inverseMeanShiftError);
     }
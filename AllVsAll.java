@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class AllVsAll {
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    private final AlignmentAlgorithm parentAlgorithm;
+    private final Alignment.Mode mode;
+    private final int tileSize;
+    private final ForkJoinPool pool;
+
+    public AllVsAll(AlignmentAlgorithm parent, Alignment.Mode mode) {
+        this(parent, mode, DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public AllVsAll(AlignmentAlgorithm parent, Alignment.Mode mode, int tileSize, ForkJoinPool pool) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.parentAlgorithm = parent;
+        this.mode = mode;
+        this.tileSize = tileSize;
+        this.pool = pool;
+    }
+
+    // Position of (i, j), i <= j, in the packed upper triangle returned by scores
+    public static long index(int i, int j, int n) {
+        return (long) i * n - (long) i * (i - 1) / 2 + (j - i);
+    }
+
+    // Scores of every pair i <= j, diagonal included. The scores are symmetric (the substitution
+    // matrix is), so the lower triangle is never computed. Tiles of the upper triangle run as
+    // independent tasks on the work-stealing pool; within a tile each row reuses one query profile.
+    public double[] scores(List<String> sequences) {
+        int n = sequences.size();
+        long cells = (long) n * (n + 1) / 2;
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many sequences for an all-vs-all matrix: " + n);
+        }
+        double[] scores = new double[(int) cells];
+
+        List<ForkJoinTask<?>> tiles = new ArrayList<>();
+        for (int row = 0; row < n; row += tileSize) {
+            for (int col = row; col < n; col += tileSize) {
+                int firstI = row, firstJ = col;
+                tiles.add(ForkJoinTask.adapt(() -> computeTile(sequences, scores, firstI, firstJ)));
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tiles)));
+        return scores;
+    }
+
+    private void computeTile(List<String> sequences, double[] scores, int firstI, int firstJ) {
+        int n = sequences.size();
+        int lastI = Math.min(firstI + tileSize, n);
+        int lastJ = Math.min(firstJ + tileSize, n);
+        for (int i = firstI; i < lastI; i++) {
+            String query = sequences.get(i);
+            double[][] queryProfile = parentAlgorithm.getQueryProfile(query);
+            for (int j = Math.max(i, firstJ); j < lastJ; j++) {
+                scores[(int) index(i, j, n)] = score(query, queryProfile, sequences.get(j));
+            }
+        }
+    }
+
+    private double score(String query, double[][] queryProfile, String target) {
+        switch (mode) {
+            case GLOBAL:
+                return parentAlgorithm.globalScore(query, queryProfile, target).score;
+            case LOCAL:
+                return parentAlgorithm.localScore(query, queryProfile, target).score;
+            case FREESHIFT:
+                return parentAlgorithm.freeShiftScore(query, queryProfile, target).score;
+            default:
+                throw new IllegalStateException("Unknown alignment mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+public class BandedGotoh {
+    private final AlignmentAlgorithm parentAlgorithm;
+    private final double gapOpenPenalty;
+    private final double gapExtendPenalty;
+
+    public BandedGotoh(AlignmentAlgorithm parent) {
+        this.parentAlgorithm = parent;
+        this.gapOpenPenalty = parent.getGapOpenPenalty();
+        this.gapExtendPenalty = parent.getGapExtendPenalty();
+    }
+
+    // Best alignment among the paths within band diagonals of the main diagonal(s)
+    public AlignmentAlgorithm.AlignmentResult globalAlignment(String seq1, String seq2, int band) {
+        Band b = new Band(seq1, seq2, band, false);
+        b.fill();
+        return b.traceback();
+    }
+
+    public AlignmentAlgorithm.AlignmentResult freeShiftAlignment(String seq1, String seq2, int band) {
+        Band b = new Band(seq1, seq2, band, true);
+        b.fill();
+        return b.traceback();
+    }
+
+    // Doubles the band until no path leaving it can beat the banded score
+    public AlignmentAlgorithm.AlignmentResult globalAlignmentExact(String seq1, String seq2, int band) {
+        return exact(seq1, seq2, band, false);
+    }
+
+    public AlignmentAlgorithm.AlignmentResult freeShiftAlignmentExact(String seq1, String seq2, int band) {
+        return exact(seq1, seq2, band, true);
+    }
+
+    private AlignmentAlgorithm.AlignmentResult exact(String seq1, String seq2, int band, boolean freeShift) {
+        while (true) {
+            Band b = new Band(seq1, seq2, band, freeShift);
+            // once the band spans half the columns the full kernel is cheaper than another doubling
+            if (b.coversMatrix() || 2L * b.width > seq2.length() + 1) {
+                return freeShift ? parentAlgorithm.freeShiftAlignment(seq1, seq2) : parentAlgorithm.globalAlignment(seq1, seq2);
+            }
+            b.fill();
+            if (b.outsideUpperBound() < b.score) {
+                return b.traceback();
+            }
+            band = Math.max(1, band * 2);
+        }
+    }
+
+    // Gotoh recurrence restricted to the diagonals lo <= j - i <= hi, kept one row at a time with the
+    // traceback codes stored row by row with width hi - lo + 1. The band always contains the diagonals
+    // of both corners, widened by the band size.
+    private class Band {
+        private final String seq1;
+        private final String seq2;
+        private final boolean freeShift;
+        private final int m;
+        private final int n;
+        private final int lo;
+        private final int hi;
+        private final int width;
+        private final byte[] a;
+        private final double[][] profile;
+
+        private Traceback traceback;
+        // M and E on diagonal hi, M and F on diagonal lo, per row; the bound starts its excursions there
+        private double[] upperM;
+        private double[] upperE;
+        private double[] lowerM;
+        private double[] lowerF;
+        private double score;
+        private int endI;
+        private int endJ;
+
+        Band(String seq1, String seq2, int band, boolean freeShift) {
+            if (band < 0) {
+                throw new IllegalArgumentException("Band must not be negative: " + band);
+            }
+            this.seq1 = seq1;
+            this.seq2 = seq2;
+            this.freeShift = freeShift;
+            m = seq1.length();
+            n = seq2.length();
+            lo = (int) Math.max(-m, (long) Math.min(0, n - m) - band);
+            hi = (int) Math.min(n, (long) Math.max(0, n - m) + band);
+            width = hi - lo + 1;
+            a = parentAlgorithm.encode(seq1);
+            profile = parentAlgorithm.getProfile(seq2);
+        }
+
+        boolean coversMatrix() {
+            return lo == -m && hi == n;
+        }
+
+        private double border(int k) {
+            return freeShift || k == 0 ? 0 : gapOpenPenalty + k * gapExtendPenalty;
+        }
+
+        void fill() {
+            DPWorkspace workspace = DPWorkspace.get();
+            // M and F of one row by offset j - i - lo, overwritten in place: before (i, j) is written
+            // the slot holds (i-1, j-1) and the next slot (i-1, j)
+            double[] M = workspace.row(0, width - 1);
+            double[] F = workspace.row(1, width - 1);
+            int[] rowOffset = new int[m + 1];
+            for (int i = 0; i <= m; i++) {
+                rowOffset[i] = i * width - i - lo;
+            }
+            traceback = workspace.traceback(m, n, rowOffset, (m + 1) * width);
+            upperM = new double[m + 1];
+            upperE = new double[m + 1];
+            lowerM = new double[m + 1];
+            lowerF = new double[m + 1];
+            Arrays.fill(upperM, Double.NEGATIVE_INFINITY);
+            Arrays.fill(upperE, Double.NEGATIVE_INFINITY);
+            Arrays.fill(lowerM, Double.NEGATIVE_INFINITY);
+            Arrays.fill(lowerF, Double.NEGATIVE_INFINITY);
+            double[] lastColumn = new double[m + 1];
+            Arrays.fill(lastColumn, Double.NEGATIVE_INFINITY);
+
+            for (int i = 0; i <= m; i++) {
+                int jStart = Math.max(0, i + lo);
+                int jEnd = Math.min(n, i + hi);
+                double[] scores = i > 0 ? profile[a[i-1]] : null;
+                // (i, j-1) leaves the band below lo
+                double leftM = Double.NEGATIVE_INFINITY;
+                double leftE = Double.NEGATIVE_INFINITY;
+                for (int j = jStart; j <= jEnd; j++) {
+                    int off = j - i - lo;
+                    double h, e, f;
+                    if (i == 0 || j == 0) {
+                        h = border(i + j);
+                        e = i == 0 && j > 0 && !freeShift ? h : Double.NEGATIVE_INFINITY;
+                        f = j == 0 && i > 0 && !freeShift ? h : Double.NEGATIVE_INFINITY;
+                    } else {
+                        // (i-1, j) leaves the band above hi
+                        double upM = off + 1 < width ? M[off + 1] : Double.NEGATIVE_INFINITY;
+                        double upF = off + 1 < width ? F[off + 1] : Double.NEGATIVE_INFINITY;
+                        double openE = leftM + gapOpenPenalty + gapExtendPenalty;
+                        double openF = upM + gapOpenPenalty + gapExtendPenalty;
+                        e = Math.max(openE, leftE + gapExtendPenalty);
+                        f = Math.max(openF, upF + gapExtendPenalty);
+                        double match = M[off] + scores[j-1];
+                        h = Math.max(Math.max(f, e), match);
+                        traceback.set(i, j, AlignmentAlgorithm.tracebackCode(h, e, f, openE, openF, false));
+                    }
+                    M[off] = h;
+                    F[off] = f;
+                    leftM = h;
+                    leftE = e;
+
+                    if (off == width - 1) {
+                        upperM[i] = h;
+                        upperE[i] = e;
+                    }
+                    if (off == 0) {
+                        lowerM[i] = h;
+                        lowerF[i] = f;
+                    }
+                    if (j == n) {
+                        lastColumn[i] = h;
+                    }
+                }
+            }
+
+            // M now holds row m
+            endI = m;
+            endJ = n;
+            if (!freeShift) {
+                score = M[n - m - lo];
+                return;
+            }
+
+            // same end cell as AlignmentAlgorithm.freeShiftAlignment: last row first, then last column
+            score = Double.NEGATIVE_INFINITY;
+            for (int j = Math.max(0, m + lo); j <= Math.min(n, m + hi); j++) {
+                if (M[j - m - lo] > score) {
+                    score = M[j - m - lo];
+                    endJ = j;
+                }
+            }
+            for (int i = 0; i <= m; i++) {
+                if (lastColumn[i] > score) {
+                    score = lastColumn[i];
+                    endI = i;
+                    endJ = n;
+                }
+            }
+        }
+
+        // Upper bound for every path that touches a cell outside the band. Such a path is split at its
+        // first exit and its last re-entry: the parts inside the band are bounded by the banded forward
+        // and reverse scores, the excursion by the best substitution score of each seq1 residue it spans.
+        double outsideUpperBound() {
+            double[] residueBound = new double[profile.length];
+            for (int res = 0; res < profile.length; res++) {
+                for (double s : profile[res]) {
+                    residueBound[res] = Math.max(residueBound[res], s);
+                }
+            }
+            double[] rowBound = new double[m + 1];
+            for (int i = 1; i <= m; i++) {
+                rowBound[i] = rowBound[i-1] + residueBound[a[i-1]];
+            }
+
+            // exit[i]: best score of reaching a cell just outside the band in row i
+            double[] exit = new double[m + 1];
+            Arrays.fill(exit, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i <= m; i++) {
+                int j = i + hi + 1;
+                if (j >= 1 && j <= n) {
+                    exit[i] = Math.max(upperM[i] + gapOpenPenalty + gapExtendPenalty,
+                                       upperE[i] + gapExtendPenalty);
+                }
+                j = i + lo - 1;
+                if (i >= 1 && j >= 0 && j <= n) {
+                    exit[i] = Math.max(exit[i], Math.max(lowerM[i - 1] + gapOpenPenalty + gapExtendPenalty,
+                                                         lowerF[i - 1] + gapExtendPenalty));
+                }
+            }
+            if (freeShift) {
+                // free starts on the first row right of the band or the first column below it
+                if (hi + 1 <= n) {
+                    exit[0] = Math.max(exit[0], 0);
+                }
+                if (1 - lo <= m) {
+                    exit[1 - lo] = Math.max(exit[1 - lo], 0);
+                }
+            }
+
+            double[] bestExit = new double[m + 1];
+            double running = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i <= m; i++) {
+                running = Math.max(running, exit[i] - rowBound[i]);
+                bestExit[i] = running;
+            }
+
+            double bound = freeShift ? bestExit[m] + rowBound[m] : Double.NEGATIVE_INFINITY;
+
+            // reverse banded Gotoh, two rows; re-entry cells lie on the outer diagonals of the band
+            double[] nextM = new double[width];
+            double[] nextF = new double[width];
+            double[] currM = new double[width];
+            double[] currF = new double[width];
+            for (int i = m; i >= 0; i--) {
+                int jStart = Math.max(0, i + lo);
+                int jEnd = Math.min(n, i + hi);
+                double RE = Double.NEGATIVE_INFINITY;
+                double rightM = Double.NEGATIVE_INFINITY;
+                for (int j = jEnd; j >= jStart; j--) {
+                    int off = j - i - lo;
+                    double rm;
+                    double rf;
+                    if (i == m || j == n) {
+                        rm = border((m - i) + (n - j));
+                        RE = !freeShift && i == m && j < n ? rm : Double.NEGATIVE_INFINITY;
+                        rf = !freeShift && j == n && i < m ? rm : Double.NEGATIVE_INFINITY;
+                    } else {
+                        // (i+1, j) is diagonal j-i-1, (i, j+1) is diagonal j-i+1
+                        double downM = off - 1 >= 0 ? nextM[off - 1] : Double.NEGATIVE_INFINITY;
+                        double downF = off - 1 >= 0 ? nextF[off - 1] : Double.NEGATIVE_INFINITY;
+                        RE = Math.max(rightM + gapOpenPenalty + gapExtendPenalty, RE + gapExtendPenalty);
+                        rf = Math.max(downM + gapOpenPenalty + gapExtendPenalty, downF + gapExtendPenalty);
+                        double match = nextM[off] + profile[a[i]][j];
+                        rm = Math.max(Math.max(rf, RE), match);
+                    }
+                    currM[off] = rm;
+                    currF[off] = rf;
+                    rightM = rm;
+
+                    // the step into a re-entry cell was a gap, which the suffix may continue without opening
+                    boolean reentry = (j - i == hi && i >= 1) || (j - i == lo && j >= 1);
+                    if (reentry && bestExit[i] > Double.NEGATIVE_INFINITY) {
+                        bound = Math.max(bound, bestExit[i] + rowBound[i] + rm - gapOpenPenalty);
+                    }
+                }
+                double[] tmp = nextM;
+                nextM = currM;
+                currM = tmp;
+                tmp = nextF;
+                nextF = currF;
+                currF = tmp;
+            }
+
+            return bound;
+        }
+
+        AlignmentAlgorithm.AlignmentResult traceback() {
+            Cigar.Builder path = new Cigar.Builder();
+            int[] start = traceback.walk(endI, endJ, path);
+            int i = start[0], j = start[1];
+
+            Cigar cigar;
+            if (freeShift) {
+                cigar = AlignmentAlgorithm.padFreeshift(m, n, path.buildReversed(), i, j, endI, endJ);
+            } else {
+                path.add(Cigar.DELETION, i);
+                path.add(Cigar.INSERTION, j);
+                cigar = path.buildReversed();
+            }
+            return parentAlgorithm.createResult(seq1, seq2, cigar, score, null, null);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+public class BatchSmithWaterman {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+    // substitution score past the end of a shorter target; never part of a positive local alignment
+    private static final int PADDING_SCORE = -(1 << 24);
+
+    private final SubstitutionMatrix substitutionMatrix;
+    private final int scale;
+    private final int[][] matrix;
+    private final int gapOpenCost;
+    private final int gapExtendCost;
+    private final AlignmentAlgorithm parentAlgorithm;
+
+    public BatchSmithWaterman(SubstitutionMatrix substitutionMatrix, AlignmentAlgorithm parent) {
+        this.substitutionMatrix = substitutionMatrix;
+        this.parentAlgorithm = parent;
+        this.scale = substitutionMatrix.getQuantizationScale(parent.getGapOpenPenalty(), parent.getGapExtendPenalty());
+        this.matrix = substitutionMatrix.getQuantizedMatrix(scale);
+        this.gapOpenCost = (int) -Math.round((parent.getGapOpenPenalty() + parent.getGapExtendPenalty()) * scale);
+        this.gapExtendCost = (int) -Math.round(parent.getGapExtendPenalty() * scale);
+    }
+
+    // Local Gotoh scores of query against every target, in the order of targets; targets are residue
+    // views, such as SequenceDatabase.residues.
+    // Each vector lane holds a different target (SWIPE); targets are batched by length. Targets whose
+    // int scores could overflow are scored one by one on the parent's local kernel.
+    public double[] scores(String query, List<ByteBuffer> targets) {
+        byte[] q = substitutionMatrix.encode(query);
+        int m = q.length;
+        double[] result = new double[targets.size()];
+        byte[][] encoded = new byte[targets.size()][];
+        List<Integer> batched = new ArrayList<>(targets.size());
+        double[][] queryProfile = null;
+        for (int t = 0; t < encoded.length; t++) {
+            encoded[t] = substitutionMatrix.encode(targets.get(t));
+            if (substitutionMatrix.fitsQuantized(scale, parentAlgorithm.getGapOpenPenalty(),
+                    parentAlgorithm.getGapExtendPenalty(), m, encoded[t].length)) {
+                batched.add(t);
+            } else {
+                if (queryProfile == null) {
+                    queryProfile = parentAlgorithm.getQueryProfile(query);
+                }
+                result[t] = parentAlgorithm.localScore(q, queryProfile, encoded[t]).score;
+            }
+        }
+        Integer[] order = batched.toArray(new Integer[0]);
+        Arrays.sort(order, (x, y) -> Integer.compare(encoded[x].length, encoded[y].length));
+
+        int[] H = new int[(m + 1) * LANES];
+        int[] E = new int[(m + 1) * LANES];
+        int[] columnProfile = new int[matrix.length * LANES];
+
+        for (int start = 0; start < order.length; start += LANES) {
+            int count = Math.min(LANES, order.length - start);
+            byte[][] batch = new byte[LANES][];
+            int maxLength = 0;
+            for (int k = 0; k < LANES; k++) {
+                batch[k] = k < count ? encoded[order[start + k]] : new byte[0];
+                maxLength = Math.max(maxLength, batch[k].length);
+            }
+
+            int[] best = align(q, batch, maxLength, H, E, columnProfile);
+            for (int k = 0; k < count; k++) {
+                result[order[start + k]] = (double) best[k] / scale;
+            }
+        }
+        return result;
+    }
+
+    private int[] align(byte[] q, byte[][] batch, int maxLength, int[] H, int[] E, int[] columnProfile) {
+        int m = q.length;
+        Arrays.fill(H, 0);
+        Arrays.fill(E, NEGATIVE_INFINITY);
+
+        IntVector zero = IntVector.zero(SPECIES);
+        IntVector vGapOpen = IntVector.broadcast(SPECIES, gapOpenCost);
+        IntVector vGapExtend = IntVector.broadcast(SPECIES, gapExtendCost);
+        IntVector vMax = zero;
+
+        for (int j = 0; j < maxLength; j++) {
+            for (int res = 0; res < matrix.length; res++) {
+                int[] scores = matrix[res];
+                for (int k = 0; k < LANES; k++) {
+                    columnProfile[res * LANES + k] = j < batch[k].length ? scores[batch[k][j]] : PADDING_SCORE;
+                }
+            }
+
+            IntVector vDiag = zero;
+            IntVector vF = IntVector.broadcast(SPECIES, NEGATIVE_INFINITY);
+            for (int i = 1, off = LANES; i <= m; i++, off += LANES) {
+                IntVector vLeft = IntVector.fromArray(SPECIES, H, off);
+                IntVector e = IntVector.fromArray(SPECIES, E, off);
+                IntVector h = vDiag.add(IntVector.fromArray(SPECIES, columnProfile, q[i-1] * LANES))
+                        .max(e).max(vF).max(zero);
+                vMax = vMax.max(h);
+                h.intoArray(H, off);
+                IntVector open = h.sub(vGapOpen);
+                e.sub(vGapExtend).max(open).intoArray(E, off);
+                vF = vF.sub(vGapExtend).max(open);
+                vDiag = vLeft;
+            }
+        }
+
+        return vMax.toIntArray();
+    }
+}
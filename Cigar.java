@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+// Run-length edit transcript of a pairwise alignment over the full sequences, starting at (0, 0):
+// MATCH pairs a residue of each sequence, INSERTION a residue of seq2 with a gap, DELETION a
+// residue of seq1 with a gap. Unaligned flanks of local and freeshift alignments are gap runs.
+public class Cigar {
+    public static final int MATCH = 0;
+    public static final int INSERTION = 1;
+    public static final int DELETION = 2;
+    private static final char[] SYMBOLS = {'M', 'I', 'D'};
+
+    // length << 2 | op
+    private final int[] runs;
+    private final int size;
+    private final int columns;
+    private final int residues1;
+    private final int residues2;
+
+    private Cigar(int[] runs, int size) {
+        this.runs = runs;
+        this.size = size;
+        int total = 0, length1 = 0, length2 = 0;
+        for (int k = 0; k < size; k++) {
+            int length = runs[k] >>> 2;
+            total += length;
+            if ((runs[k] & 3) != INSERTION) length1 += length;
+            if ((runs[k] & 3) != DELETION) length2 += length;
+        }
+        this.columns = total;
+        this.residues1 = length1;
+        this.residues2 = length2;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int k) {
+        return runs[k] & 3;
+    }
+
+    public int length(int k) {
+        return runs[k] >>> 2;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    // Residues of seq1 / seq2 covered by the transcript
+    public int residues1() {
+        return residues1;
+    }
+
+    public int residues2() {
+        return residues2;
+    }
+
+    public String aligned1(String seq1) {
+        return render(seq1, INSERTION);
+    }
+
+    public String aligned2(String seq2) {
+        return render(seq2, DELETION);
+    }
+
+    // gapOp is the operation that leaves seq without a residue
+    private String render(String seq, int gapOp) {
+        StringBuilder out = new StringBuilder(columns);
+        int pos = 0;
+        for (int k = 0; k < size; k++) {
+            int length = length(k);
+            if (op(k) == gapOp) {
+                for (int c = 0; c < length; c++) {
+                    out.append('-');
+                }
+            } else {
+                out.append(seq, pos, pos + length);
+                pos += length;
+            }
+        }
+        return out.toString();
+    }
+
+    // For each residue of seq1 the residue of seq2 it is aligned to, or -1
+    public int[] partners1() {
+        int[] partners = new int[residues1];
+        Arrays.fill(partners, -1);
+        int i = 0, j = 0;
+        for (int k = 0; k < size; k++) {
+            int length = length(k);
+            switch (op(k)) {
+                case MATCH:
+                    for (int c = 0; c < length; c++) {
+                        partners[i++] = j++;
+                    }
+                    break;
+                case INSERTION:
+                    j += length;
+                    break;
+                default:
+                    i += length;
+                    break;
+            }
+        }
+        return partners;
+    }
+
+    // For each residue of seq2 the residue of seq1 it is aligned to, or -1
+    public int[] partners2() {
+        int[] partners = new int[residues2];
+        Arrays.fill(partners, -1);
+        int i = 0, j = 0;
+        for (int k = 0; k < size; k++) {
+            int length = length(k);
+            switch (op(k)) {
+                case MATCH:
+                    for (int c = 0; c < length; c++) {
+                        partners[j++] = i++;
+                    }
+                    break;
+                case INSERTION:
+                    j += length;
+                    break;
+                default:
+                    i += length;
+                    break;
+            }
+        }
+        return partners;
+    }
+
+    public static Cigar fromGapped(String aligned1, String aligned2) {
+        Builder builder = new Builder();
+        for (int c = 0; c < aligned1.length(); c++) {
+            char c1 = aligned1.charAt(c);
+            char c2 = aligned2.charAt(c);
+            if (c1 == '-' && c2 == '-') {
+                continue;
+            }
+            builder.add(c1 == '-' ? INSERTION : c2 == '-' ? DELETION : MATCH, 1);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int k = 0; k < size; k++) {
+            out.append(length(k)).append(SYMBOLS[op(k)]);
+        }
+        return out.toString();
+    }
+
+    // Collects runs; adjacent runs of the same operation are merged
+    public static class Builder {
+        private int[] runs = new int[16];
+        private int size = 0;
+
+        public Builder add(int op, int length) {
+            if (length <= 0) {
+                return this;
+            }
+            if (size > 0 && (runs[size - 1] & 3) == op) {
+                runs[size - 1] += length << 2;
+                return this;
+            }
+            if (size == runs.length) {
+                runs = Arrays.copyOf(runs, size * 2);
+            }
+            runs[size++] = length << 2 | op;
+            return this;
+        }
+
+        public Builder add(Cigar cigar) {
+            for (int k = 0; k < cigar.size; k++) {
+                add(cigar.op(k), cigar.length(k));
+            }
+            return this;
+        }
+
+        public Cigar build() {
+            return new Cigar(Arrays.copyOf(runs, size), size);
+        }
+
+        // For tracebacks, which add the last column first
+        public Cigar buildReversed() {
+            int[] reversed = new int[size];
+            for (int k = 0; k < size; k++) {
+                reversed[k] = runs[size - 1 - k];
+            }
+            return new Cigar(reversed, size);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+// Flat DP buffers reused by every kernel running on one thread. Buffers only grow, to the largest
+// pair aligned so far, so a batch run allocates them a handful of times instead of once per pair.
+// Anything handed out is only valid until the next kernel on the same thread asks for it again.
+public class DPWorkspace {
+    private static final ThreadLocal<DPWorkspace> WORKSPACES = ThreadLocal.withInitial(DPWorkspace::new);
+    private static final int ROWS = 3;
+
+    private double[] matrix = new double[0];
+    private int[] intMatrix = new int[0];
+    private byte[] codes = new byte[0];
+    private final double[][] rows = new double[ROWS][0];
+    private final int[][] intRows = new int[ROWS][0];
+
+    public static DPWorkspace get() {
+        return WORKSPACES.get();
+    }
+
+    // (m+1)*(n+1) cells in row-major order with stride n+1; contents are left from the last use
+    public double[] matrix(int m, int n) {
+        int size = cells(m, n);
+        if (matrix.length < size) {
+            matrix = new double[size];
+        }
+        return matrix;
+    }
+
+    public int[] intMatrix(int m, int n) {
+        int size = cells(m, n);
+        if (intMatrix.length < size) {
+            intMatrix = new int[size];
+        }
+        return intMatrix;
+    }
+
+    // Cleared traceback codes for an (m+1) x (n+1) matrix
+    public Traceback traceback(int m, int n) {
+        return new Traceback(m, n, clearedCodes(cells(m, n)));
+    }
+
+    // Cleared traceback codes for a banded matrix of the given number of cells, (i, j) stored at rowOffset[i] + j
+    public Traceback traceback(int m, int n, int[] rowOffset, int cells) {
+        return new Traceback(m, n, clearedCodes(cells), rowOffset);
+    }
+
+    private byte[] clearedCodes(int cells) {
+        int size = (int) (((long) cells + 1) / 2);
+        if (codes.length < size) {
+            codes = new byte[size];
+        } else {
+            Arrays.fill(codes, 0, size, (byte) 0);
+        }
+        return codes;
+    }
+
+    // Row buffer number slot (0 to 2) with at least n+1 cells; contents are left from the last use
+    public double[] row(int slot, int n) {
+        if (rows[slot].length < n + 1) {
+            rows[slot] = new double[n + 1];
+        }
+        return rows[slot];
+    }
+
+    public int[] intRow(int slot, int n) {
+        if (intRows[slot].length < n + 1) {
+            intRows[slot] = new int[n + 1];
+        }
+        return intRows[slot];
+    }
+
+    private static int cells(int m, int n) {
+        long size = (long) (m + 1) * (n + 1);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Alignment matrix too large: " + (m + 1) + " x " + (n + 1));
+        }
+        return (int) size;
+    }
+}
@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class DatabaseSearch {
+    public static final int DEFAULT_TOP_K = 10;
+    // targets scored by one task; big enough that scheduling is noise next to the DP
+    private static final int BLOCK_SIZE = 64;
+
+    // best first; equal scores keep library order
+    private static final Comparator<Hit> RANKING =
+            Comparator.comparingDouble((Hit hit) -> -hit.score).thenComparingInt(hit -> hit.index);
+
+    private final AlignmentAlgorithm parentAlgorithm;
+    private final Alignment.Mode mode;
+    private final int topK;
+    private final ForkJoinPool pool;
+
+    public static class Hit {
+        public final int index;
+        public final double score;
+
+        public Hit(int index, double score) {
+            this.index = index;
+            this.score = score;
+        }
+    }
+
+    public DatabaseSearch(AlignmentAlgorithm parent, Alignment.Mode mode, int topK) {
+        this(parent, mode, topK, ForkJoinPool.commonPool());
+    }
+
+    public DatabaseSearch(AlignmentAlgorithm parent, Alignment.Mode mode, int topK, ForkJoinPool pool) {
+        if (topK < 1) {
+            throw new IllegalArgumentException("Number of hits must be positive: " + topK);
+        }
+        this.parentAlgorithm = parent;
+        this.mode = mode;
+        this.topK = topK;
+        this.pool = pool;
+    }
+
+    // Scores query against every target (null targets are skipped) and returns the topK best hits,
+    // best first. Hits carry the index into targets; only scores are computed, no tracebacks.
+    // Targets are residue views, such as SequenceDatabase.residues, encoded as they are scored.
+    public List<Hit> search(String query, List<ByteBuffer> targets) {
+        byte[] encodedQuery = parentAlgorithm.encode(query);
+        double[][] queryProfile = parentAlgorithm.getQueryProfile(query);
+
+        List<ForkJoinTask<PriorityQueue<Hit>>> blocks = new ArrayList<>();
+        for (int start = 0; start < targets.size(); start += BLOCK_SIZE) {
+            int from = start;
+            int to = Math.min(start + BLOCK_SIZE, targets.size());
+            blocks.add(ForkJoinTask.adapt(() -> searchBlock(encodedQuery, queryProfile, targets, from, to)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(blocks)));
+
+        PriorityQueue<Hit> best = new PriorityQueue<>(RANKING.reversed());
+        for (ForkJoinTask<PriorityQueue<Hit>> block : blocks) {
+            for (Hit hit : block.join()) {
+                offer(best, hit);
+            }
+        }
+
+        Hit[] ranked = best.toArray(new Hit[0]);
+        Arrays.sort(ranked, RANKING);
+        return Arrays.asList(ranked);
+    }
+
+    private PriorityQueue<Hit> searchBlock(byte[] query, double[][] queryProfile, List<ByteBuffer> targets,
+                                           int from, int to) {
+        PriorityQueue<Hit> best = new PriorityQueue<>(RANKING.reversed());
+        for (int t = from; t < to; t++) {
+            ByteBuffer target = targets.get(t);
+            if (target == null) {
+                continue;
+            }
+            offer(best, new Hit(t, score(query, queryProfile, parentAlgorithm.encode(target))));
+        }
+        return best;
+    }
+
+    // best is a bounded heap with the worst kept hit on top
+    private void offer(PriorityQueue<Hit> best, Hit hit) {
+        if (best.size() < topK) {
+            best.add(hit);
+        } else if (RANKING.compare(hit, best.peek()) < 0) {
+            best.poll();
+            best.add(hit);
+        }
+    }
+
+    private double score(byte[] query, double[][] queryProfile, byte[] target) {
+        switch (mode) {
+            case GLOBAL:
+                return parentAlgorithm.globalScore(query, queryProfile, target).score;
+            case LOCAL:
+                return parentAlgorithm.localScore(query, queryProfile, target).score;
+            case FREESHIFT:
+                return parentAlgorithm.freeShiftScore(query, queryProfile, target).score;
+            default:
+                throw new IllegalStateException("Unknown alignment mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+// Input files that may be gzip-compressed, recognised by their magic bytes rather than the name.
+// Decompression runs ahead of the reader on other threads. BGZF files (bgzip, the blocked gzip of
+// sequence tools) record the size of every member in its header, so members are read without being
+// inflated and then inflated in parallel on the common pool. Other gzip files, single- or multi-member,
+// are inflated in order on one background thread.
+public class GzipInput {
+    private static final int CHUNK_BYTES = 1 << 20;
+    // inflated chunks or BGZF blocks waiting for the reader
+    private static final int READ_AHEAD = 64;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int BGZF_HEADER_BYTES = 18;
+
+    public static BufferedReader openReader(String filename) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(filename)));
+    }
+
+    public static InputStream open(String filename) throws IOException {
+        InputStream file = new BufferedInputStream(new FileInputStream(filename), CHUNK_BYTES);
+        file.mark(BGZF_HEADER_BYTES);
+        byte[] header = file.readNBytes(BGZF_HEADER_BYTES);
+        file.reset();
+        if (!isGzip(header)) {
+            return file;
+        }
+        ReadAheadStream stream = new ReadAheadStream();
+        Thread producer = new Thread(isBgzf(header) ? () -> stream.readBgzf(file) : () -> stream.inflate(file),
+                "gzip-" + filename);
+        producer.setDaemon(true);
+        producer.start();
+        return stream;
+    }
+
+    public static boolean isCompressed(String filename) throws IOException {
+        try (InputStream in = new FileInputStream(filename)) {
+            return isGzip(in.readNBytes(2));
+        }
+    }
+
+    private static boolean isGzip(byte[] header) {
+        return header.length >= 2 && ((header[0] & 0xFF) | (header[1] & 0xFF) << 8) == GZIP_MAGIC;
+    }
+
+    // gzip header with FEXTRA holding only the BC subfield (the block size)
+    private static boolean isBgzf(byte[] header) {
+        return header.length == BGZF_HEADER_BYTES && header[2] == 8 && (header[3] & 4) != 0
+                && header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0;
+    }
+
+    private static byte[] inflateBlock(byte[] block) throws IOException {
+        ByteBuffer trailer = ByteBuffer.wrap(block, block.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = trailer.getInt();
+        int size = trailer.getInt();
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, BGZF_HEADER_BYTES, block.length - BGZF_HEADER_BYTES - 8);
+            if (inflater.inflate(data) != size || !inflater.finished()) {
+                throw new IOException("Corrupt BGZF block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        CRC32 check = new CRC32();
+        check.update(data);
+        if ((int) check.getValue() != crc) {
+            throw new IOException("BGZF block failed its CRC check");
+        }
+        return data;
+    }
+
+    // Decompressed bytes handed over by a producer thread as an ordered queue of chunks
+    private static class ReadAheadStream extends InputStream {
+        private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+
+        private final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<>(READ_AHEAD);
+        private volatile boolean closed;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean ended;
+
+        void readBgzf(InputStream file) {
+            try (InputStream in = file) {
+                byte[] header;
+                while (!closed && (header = in.readNBytes(BGZF_HEADER_BYTES)).length > 0) {
+                    if (!isBgzf(header)) {
+                        throw new IOException("Not a BGZF block");
+                    }
+                    int blockSize = ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+                    byte[] block = new byte[blockSize];
+                    System.arraycopy(header, 0, block, 0, BGZF_HEADER_BYTES);
+                    if (in.readNBytes(block, BGZF_HEADER_BYTES, blockSize - BGZF_HEADER_BYTES)
+                            != blockSize - BGZF_HEADER_BYTES) {
+                        throw new EOFException("Truncated BGZF block");
+                    }
+                    chunks.put(ForkJoinPool.commonPool().submit(() -> inflateBlock(block)));
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finish();
+        }
+
+        void inflate(InputStream file) {
+            try (InputStream in = new GZIPInputStream(file, CHUNK_BYTES)) {
+                byte[] data;
+                while (!closed && (data = in.readNBytes(CHUNK_BYTES)).length > 0) {
+                    chunks.put(CompletableFuture.completedFuture(data));
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finish();
+        }
+
+        private void fail(Exception e) {
+            try {
+                chunks.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void finish() {
+            try {
+                chunks.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // false at the end of the input
+        private boolean fill() throws IOException {
+            while (!ended && position == chunk.length) {
+                try {
+                    Future<byte[]> next = chunks.take();
+                    if (next == END) {
+                        ended = true;
+                    } else {
+                        chunk = next.get();
+                        position = 0;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while decompressing");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+            return position < chunk.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? chunk[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        // the producer sees closed after at most one more chunk, which clearing the queue makes room for
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+// Library entry of every id spelling met in a pairs file. Library ids and their lower-cased forms are
+// indexed when the index is built; any other spelling (SCOP "d..._" names, chain and number variants)
+// goes through the converter once and is kept for the next occurrence if it names a library entry.
+// Spellings that miss only go into a small least-recently-used memo, so junk columns in a large
+// pairs file cannot grow the index. Pairs then hold shared Alias objects instead of fresh strings.
+public class IdAliasIndex {
+    private static final int MISS_CACHE_SIZE = 4096;
+
+    private final SequenceDatabase library;
+    private final UnaryOperator<String> converter;
+    private final Map<String, Alias> aliases;
+    private final Map<String, Alias> misses = new LinkedHashMap<>(2 * MISS_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Alias> eldest) {
+            return size() > MISS_CACHE_SIZE;
+        }
+    };
+
+    public static class Alias {
+        // the id as the converter spells it, used in the output
+        public final String name;
+        // library entry, -1 if the id is not in the library
+        public final int entry;
+
+        Alias(String name, int entry) {
+            this.name = name;
+            this.entry = entry;
+        }
+    }
+
+    // converter maps a spelling to the key the library is searched with
+    public IdAliasIndex(SequenceDatabase library, UnaryOperator<String> converter) {
+        this.library = library;
+        this.converter = converter;
+        this.aliases = new HashMap<>(4 * library.size());
+        for (int e = 0; e < library.size(); e++) {
+            String id = library.id(e);
+            aliases.put(id, new Alias(id, e));
+        }
+        // a lower-cased id may be another entry's exact id, so these go in second
+        for (int e = 0; e < library.size(); e++) {
+            String lowerId = library.id(e).toLowerCase();
+            if (!aliases.containsKey(lowerId)) {
+                aliases.put(lowerId, new Alias(lowerId, library.indexOf(lowerId)));
+            }
+        }
+    }
+
+    public Alias resolve(String token) {
+        Alias alias = aliases.get(token);
+        if (alias == null) {
+            alias = misses.get(token);
+        }
+        if (alias == null) {
+            String key = converter.apply(token);
+            Alias known = aliases.get(key);
+            alias = known != null && known.name.equals(key) ? known : new Alias(key, library.indexOf(key));
+            if (alias.entry >= 0) {
+                aliases.put(token, alias);
+            } else {
+                misses.put(token, alias);
+            }
+        }
+        return alias;
+    }
+}
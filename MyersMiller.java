@@ -0,0 +1,218 @@
+public class MyersMiller {
+    private final String seq1;
+    private final String seq2;
+    private final double gapOpenPenalty;
+    private final double gapExtendPenalty;
+    private final AlignmentAlgorithm parentAlgorithm;
+
+    private double[] CC;
+    private double[] DD;
+    private double[] RR;
+    private double[] SS;
+    private byte[] codes1;
+    private double[][] profile;
+    private Cigar.Builder path;
+
+    public MyersMiller(String seq1, String seq2, AlignmentAlgorithm parent) {
+        this.seq1 = seq1;
+        this.seq2 = seq2;
+        this.parentAlgorithm = parent;
+        this.gapOpenPenalty = parent.getGapOpenPenalty();
+        this.gapExtendPenalty = parent.getGapExtendPenalty();
+    }
+
+    // Global Gotoh alignment in O(m+n) space (Myers & Miller 1988)
+    public AlignmentAlgorithm.AlignmentResult computeAlignment() {
+        int m = seq1.length();
+        int n = seq2.length();
+        CC = new double[n + 1];
+        DD = new double[n + 1];
+        RR = new double[n + 1];
+        SS = new double[n + 1];
+        codes1 = parentAlgorithm.encode(seq1);
+        profile = parentAlgorithm.getProfile(seq2);
+        path = new Cigar.Builder();
+
+        diff(0, m, 0, n, gapOpenPenalty, gapOpenPenalty);
+
+        Cigar cigar = path.build();
+        return parentAlgorithm.createResult(seq1, seq2, cigar, pathScore(cigar), null, null);
+    }
+
+    // tb/te: open penalty of a vertical gap touching the start/end corner (0 if it continues a gap of the caller)
+    private void diff(int a1, int a2, int b1, int b2, double tb, double te) {
+        int m = a2 - a1;
+        int n = b2 - b1;
+
+        if (n == 0) {
+            deleteRange(a1, a2);
+            return;
+        }
+        if (m == 0) {
+            insertRange(b1, b2);
+            return;
+        }
+        if (m == 1) {
+            alignSingle(a1, b1, b2, tb, te);
+            return;
+        }
+
+        int midi = a1 + m / 2;
+        forwardPass(a1, midi, b1, b2, tb);
+        reversePass(midi, a2, b1, b2, te);
+
+        double best = Double.NEGATIVE_INFINITY;
+        int midj = b1;
+        int type = 1;
+        for (int j = b1; j <= b2; j++) {
+            int k = j - b1;
+            double through = CC[k] + RR[k];
+            if (through > best + 0.0001) {
+                best = through;
+                midj = j;
+                type = 1;
+            }
+            double crossing = DD[k] + SS[k] - gapOpenPenalty;
+            if (crossing > best - 0.0001) {
+                best = crossing;
+                midj = j;
+                type = 2;
+            }
+        }
+
+        if (type == 1) {
+            diff(a1, midi, b1, midj, tb, gapOpenPenalty);
+            diff(midi, a2, midj, b2, gapOpenPenalty, te);
+        } else {
+            diff(a1, midi - 1, b1, midj, tb, 0);
+            deleteRange(midi - 1, midi + 1);
+            diff(midi + 1, a2, midj, b2, 0, te);
+        }
+    }
+
+    private void forwardPass(int a1, int a2, int b1, int b2, double tb) {
+        int n = b2 - b1;
+        CC[0] = 0;
+        DD[0] = Double.NEGATIVE_INFINITY;
+        for (int j = 1; j <= n; j++) {
+            CC[j] = gapOpenPenalty + j * gapExtendPenalty;
+            DD[j] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = 1; i <= a2 - a1; i++) {
+            double[] scores = profile[codes1[a1 + i - 1]];
+            double diag = CC[0];
+            CC[0] = tb + i * gapExtendPenalty;
+            DD[0] = CC[0];
+            double E = Double.NEGATIVE_INFINITY;
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(CC[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                DD[j] = Math.max(CC[j] + gapOpenPenalty + gapExtendPenalty, DD[j] + gapExtendPenalty);
+                double match = diag + scores[b1 + j - 1];
+                diag = CC[j];
+                CC[j] = Math.max(Math.max(DD[j], E), match);
+            }
+        }
+    }
+
+    // RR[k]/SS[k] score the suffix problem starting at column b1 + k of the first row
+    private void reversePass(int a1, int a2, int b1, int b2, double te) {
+        int n = b2 - b1;
+        RR[n] = 0;
+        SS[n] = Double.NEGATIVE_INFINITY;
+        for (int j = n - 1; j >= 0; j--) {
+            RR[j] = gapOpenPenalty + (n - j) * gapExtendPenalty;
+            SS[j] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = 1; i <= a2 - a1; i++) {
+            double[] scores = profile[codes1[a2 - i]];
+            double diag = RR[n];
+            RR[n] = te + i * gapExtendPenalty;
+            SS[n] = RR[n];
+            double E = Double.NEGATIVE_INFINITY;
+            for (int j = n - 1; j >= 0; j--) {
+                E = Math.max(RR[j+1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                SS[j] = Math.max(RR[j] + gapOpenPenalty + gapExtendPenalty, SS[j] + gapExtendPenalty);
+                double match = diag + scores[b1 + j];
+                diag = RR[j];
+                RR[j] = Math.max(Math.max(SS[j], E), match);
+            }
+        }
+    }
+
+    private void alignSingle(int a, int b1, int b2, double tb, double te) {
+        int n = b2 - b1;
+        double[] scores = profile[codes1[a]];
+
+        // deleting the residue: a vertical gap of length 1 plus one horizontal gap over seq2
+        double best = Math.max(tb, te) + gapExtendPenalty + gapOpenPenalty + n * gapExtendPenalty;
+        int midj = -1;
+        for (int j = b1; j < b2; j++) {
+            double score = gap(j - b1) + scores[j] + gap(b2 - j - 1);
+            if (score > best + 0.0001) {
+                best = score;
+                midj = j;
+            }
+        }
+
+        if (midj < 0) {
+            if (tb > te) {
+                deleteRange(a, a + 1);
+                insertRange(b1, b2);
+            } else {
+                insertRange(b1, b2);
+                deleteRange(a, a + 1);
+            }
+            return;
+        }
+
+        insertRange(b1, midj);
+        path.add(Cigar.MATCH, 1);
+        insertRange(midj + 1, b2);
+    }
+
+    private double gap(int length) {
+        return length == 0 ? 0 : gapOpenPenalty + length * gapExtendPenalty;
+    }
+
+    private void deleteRange(int a1, int a2) {
+        path.add(Cigar.DELETION, a2 - a1);
+    }
+
+    private void insertRange(int b1, int b2) {
+        path.add(Cigar.INSERTION, b2 - b1);
+    }
+
+    // Re-scores the path with the same additions the Gotoh fill performs, so the score matches globalAlignment
+    private double pathScore(Cigar cigar) {
+        double score = 0;
+        int i = 0, j = 0;
+
+        for (int k = 0; k < cigar.size(); k++) {
+            int length = cigar.length(k);
+            if (cigar.op(k) == Cigar.MATCH) {
+                for (int c = 0; c < length; c++, i++, j++) {
+                    score += parentAlgorithm.getSubstitutionScore(seq1.charAt(i), seq2.charAt(j));
+                }
+                continue;
+            }
+
+            if (k == 0) {
+                score = gapOpenPenalty + length * gapExtendPenalty;
+            } else {
+                score = score + gapOpenPenalty + gapExtendPenalty;
+                for (int c = 1; c < length; c++) {
+                    score = score + gapExtendPenalty;
+                }
+            }
+            if (cigar.op(k) == Cigar.INSERTION) {
+                j += length;
+            } else {
+                i += length;
+            }
+        }
+
+        return score;
+    }
+}
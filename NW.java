@@ -16,23 +16,28 @@ public class NW {
     public AlignmentAlgorithm.AlignmentResult computeAlignment() {
         int m = seq1.length();
         int n = seq2.length();
-        double[][] dp = new double[m + 1][n + 1];
-        int[][] backtrack = new int[m + 1][n + 1];
+        byte[] a = parentAlgorithm.encode(seq1);
+        double[][] profile = parentAlgorithm.getProfile(seq2);
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] dp = workspace.matrix(m, n);
+        Traceback backtrack = workspace.traceback(m, n);
+        int width = n + 1;
 
         for (int i = 0; i <= m; i++) {
-            dp[i][0] = gapOpenPenalty + i * gapExtendPenalty;
-            backtrack[i][0] = 1;  // Up
+            dp[i * width] = gapOpenPenalty + i * gapExtendPenalty;
+            backtrack.set(i, 0, 1);  // Up
         }
         for (int j = 0; j <= n; j++) {
-            dp[0][j] = gapOpenPenalty + j * gapExtendPenalty;
-            backtrack[0][j] = 2;  // Left
+            dp[j] = gapOpenPenalty + j * gapExtendPenalty;
+            backtrack.set(0, j, 2);  // Left
         }
 
         for (int i = 1; i <= m; i++) {
+            double[] scores = profile[a[i - 1]];
             for (int j = 1; j <= n; j++) {
-                double match = dp[i - 1][j - 1] + parentAlgorithm.getSubstitutionScore(seq1.charAt(i - 1), seq2.charAt(j - 1));
-                double delete = dp[i - 1][j] + gapExtendPenalty;
-                double insert = dp[i][j - 1] + gapExtendPenalty;
+                double match = dp[(i - 1) * width + j - 1] + scores[j - 1];
+                double delete = dp[(i - 1) * width + j] + gapExtendPenalty;
+                double insert = dp[i * width + j - 1] + gapExtendPenalty;
 
                 double maxScore = Double.NEGATIVE_INFINITY;
                 int backtrackDir = -1;
@@ -52,48 +57,37 @@ public class NW {
                     backtrackDir = 0;
                 }
 
-                dp[i][j] = maxScore;
-                backtrack[i][j] = backtrackDir;
+                dp[i * width + j] = maxScore;
+                backtrack.set(i, j, backtrackDir);
             }
         }
 
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
+        Cigar.Builder path = new Cigar.Builder();
         int i = m, j = n;
 
-        while (i > 0 || j > 0) {
-            if (i > 0 && j > 0) {
-                if (backtrack[i][j] == 0) {
-                    align1.insert(0, seq1.charAt(i - 1));
-                    align2.insert(0, seq2.charAt(j - 1));
-                    i--;
-                    j--;
-                } else if (backtrack[i][j] == 1) {
-                    align1.insert(0, seq1.charAt(i - 1));
-                    align2.insert(0, '-');
-                    i--;
-                } else {
-                    align1.insert(0, '-');
-                    align2.insert(0, seq2.charAt(j - 1));
-                    j--;
-                }
-            } else if (i > 0) {
-                align1.insert(0, seq1.charAt(i - 1));
-                align2.insert(0, '-');
+        while (i > 0 && j > 0) {
+            if (backtrack.source(i, j) == 0) {
+                path.add(Cigar.MATCH, 1);
+                i--;
+                j--;
+            } else if (backtrack.source(i, j) == 1) {
+                path.add(Cigar.DELETION, 1);
                 i--;
             } else {
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j - 1));
+                path.add(Cigar.INSERTION, 1);
                 j--;
             }
         }
+        path.add(Cigar.DELETION, i);
+        path.add(Cigar.INSERTION, j);
 
-        return parentAlgorithm.new AlignmentResult(
-                align1.toString(),
-                align2.toString(),
-                dp[m][n],
-                dp,
-                backtrack
+        return parentAlgorithm.createResult(
+                seq1,
+                seq2,
+                path.buildReversed(),
+                dp[m * width + n],
+                parentAlgorithm.capturedMatrix(dp, backtrack),
+                parentAlgorithm.capturedTraceback(backtrack)
         );
     }
 }
\ No newline at end of file
@@ -19,59 +19,60 @@ public class NwDp {
         int m = seq1.length();
         int n = seq2.length();
 
-        int[][] dp = new int[m + 1][n + 1];
-        char[][] backtrack = new char[m + 1][n + 1];
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] dp = workspace.intMatrix(m, n);
+        Traceback backtrack = workspace.traceback(m, n);
+        int width = n + 1;
 
         for (int i = 0; i <= m; i++) {
-            dp[i][0] = i * GAP_PENALTY;
-            backtrack[i][0] = 'U';
+            dp[i * width] = i * GAP_PENALTY;
+            backtrack.set(i, 0, Traceback.FROM_F);
         }
         for (int j = 0; j <= n; j++) {
-            dp[0][j] = j * GAP_PENALTY;
-            backtrack[0][j] = 'L';
+            dp[j] = j * GAP_PENALTY;
+            backtrack.set(0, j, Traceback.FROM_E);
         }
 
         for (int i = 1; i <= m; i++) {
+            int row = i * width;
+            int above = row - width;
             for (int j = 1; j <= n; j++) {
-                int match = dp[i-1][j-1] + getScore(seq1.charAt(i-1), seq2.charAt(j-1));
-                int delete = dp[i-1][j] + GAP_PENALTY;
-                int insert = dp[i][j-1] + GAP_PENALTY;
+                int match = dp[above + j - 1] + getScore(seq1.charAt(i-1), seq2.charAt(j-1));
+                int delete = dp[above + j] + GAP_PENALTY;
+                int insert = dp[row + j - 1] + GAP_PENALTY;
                 
-                dp[i][j] = Math.max(Math.max(match, delete), insert);
+                dp[row + j] = Math.max(Math.max(match, delete), insert);
 
-                if (dp[i][j] == match) {
-                    backtrack[i][j] = 'D';
-                } else if (dp[i][j] == delete) {
-                    backtrack[i][j] = 'U';
+                if (dp[row + j] == match) {
+                    backtrack.set(i, j, Traceback.DIAGONAL);
+                } else if (dp[row + j] == delete) {
+                    backtrack.set(i, j, Traceback.FROM_F);
                 } else {
-                    backtrack[i][j] = 'L';
+                    backtrack.set(i, j, Traceback.FROM_E);
                 }
             }
         }
 
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
+        Cigar.Builder path = new Cigar.Builder();
         
         int i = m;
         int j = n;
         
         while (i > 0 || j > 0) {
-            if (i > 0 && j > 0 && backtrack[i][j] == 'D') {
-                align1.insert(0, seq1.charAt(i-1));
-                align2.insert(0, seq2.charAt(j-1));
+            if (i > 0 && j > 0 && backtrack.source(i, j) == Traceback.DIAGONAL) {
+                path.add(Cigar.MATCH, 1);
                 i--; j--;
-            } else if (i > 0 && backtrack[i][j] == 'U') {
-                align1.insert(0, seq1.charAt(i-1));
-                align2.insert(0, '-');
+            } else if (i > 0 && backtrack.source(i, j) == Traceback.FROM_F) {
+                path.add(Cigar.DELETION, 1);
                 i--;
             } else {
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j-1));
+                path.add(Cigar.INSERTION, 1);
                 j--;
             }
         }
         
-        return new AlignmentResult(align1.toString(), align2.toString(), dp[m][n]);
+        Cigar cigar = path.buildReversed();
+        return new AlignmentResult(cigar.aligned1(seq1), cigar.aligned2(seq2), dp[m * width + n]);
     }
 
     private static int getScore(char a, char b) {
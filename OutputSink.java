@@ -0,0 +1,185 @@
+import java.io.*;
+import java.util.Arrays;
+
+// Buffered result output. Text and numbers are encoded straight into one large byte buffer, which is
+// written to every target when it fills up, so a file and its stdout echo share one formatting pass.
+// Fixed-point numbers are formatted without String.format but with the same digits: the shortest
+// decimal form of the double (Double.toString), rounded half up.
+public class OutputSink implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    private final OutputStream[] targets;
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private int size;
+    // digits of the number being formatted, with a leading 0 for a carry
+    private byte[] digits = new byte[32];
+
+    // System.out is flushed but never closed
+    public OutputSink(OutputStream... targets) {
+        this.targets = targets;
+    }
+
+    public OutputSink append(String text) throws IOException {
+        int length = text.length();
+        for (int c = 0; c < length; c++) {
+            if (text.charAt(c) >= 0x80) {
+                return append(text.getBytes());
+            }
+        }
+        for (int c = 0; c < length; ) {
+            if (size == BUFFER_BYTES) {
+                flushBuffer();
+            }
+            int end = Math.min(length, c + BUFFER_BYTES - size);
+            for (; c < end; c++) {
+                buffer[size++] = (byte) text.charAt(c);
+            }
+        }
+        return this;
+    }
+
+    public OutputSink append(byte[] bytes) throws IOException {
+        for (int b = 0; b < bytes.length; ) {
+            if (size == BUFFER_BYTES) {
+                flushBuffer();
+            }
+            int count = Math.min(bytes.length - b, BUFFER_BYTES - size);
+            System.arraycopy(bytes, b, buffer, size, count);
+            size += count;
+            b += count;
+        }
+        return this;
+    }
+
+    public OutputSink append(char c) throws IOException {
+        ensure(1);
+        buffer[size++] = (byte) c;
+        return this;
+    }
+
+    public OutputSink newLine() throws IOException {
+        return append(LINE_SEPARATOR);
+    }
+
+    public OutputSink appendInt(int value) throws IOException {
+        return append(Integer.toString(value));
+    }
+
+    // value with the given number of decimals, as String.format("%.<decimals>f", value) writes it
+    public OutputSink appendFixed(double value, int decimals) throws IOException {
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            append('-');
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            return append("Infinity");
+        }
+
+        // significant digits and the position of the decimal point among them
+        String shortest = Double.toString(value);
+        int exponent = shortest.indexOf('E');
+        int end = exponent < 0 ? shortest.length() : exponent;
+        int count = 0;
+        int point = 0;
+        for (int c = 0; c < end; c++) {
+            char ch = shortest.charAt(c);
+            if (ch == '.') {
+                point = count;
+            } else {
+                digits[1 + count++] = (byte) ch;
+            }
+        }
+        if (exponent >= 0) {
+            point += Integer.parseInt(shortest.substring(exponent + 1));
+        }
+
+        // digits[0..kept] hold the carry digit and every digit down to the last decimal
+        int kept = point + decimals;
+        if (kept + 2 > digits.length) {
+            digits = Arrays.copyOf(digits, kept + 2);
+        }
+        digits[0] = '0';
+        if (kept < 0) {
+            kept = 0;
+            point = -decimals;
+        } else {
+            boolean roundUp = kept < count && digits[1 + kept] >= '5';
+            for (int c = count; c < kept; c++) {
+                digits[1 + c] = '0';
+            }
+            if (roundUp) {
+                int c = kept;
+                while (digits[c] == '9') {
+                    digits[c--] = '0';
+                }
+                digits[c]++;
+            }
+        }
+
+        ensure(Math.max(point, 0) + decimals + 3);
+        int first = digits[0] == '0' ? 1 : 0;
+        if (point + 1 <= first) {
+            buffer[size++] = '0';
+        } else {
+            for (int c = first; c <= point; c++) {
+                buffer[size++] = digits[c];
+            }
+        }
+        if (decimals > 0) {
+            buffer[size++] = '.';
+            for (int c = point + 1; c <= point + decimals; c++) {
+                buffer[size++] = c >= 0 ? digits[c] : (byte) '0';
+            }
+        }
+        return this;
+    }
+
+    public OutputSink writeInt(int value) throws IOException {
+        ensure(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    public OutputSink writeDouble(double value) throws IOException {
+        long bits = Double.doubleToLongBits(value);
+        writeInt((int) (bits >>> 32));
+        return writeInt((int) bits);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (size + bytes > BUFFER_BYTES) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        for (OutputStream target : targets) {
+            target.write(buffer, 0, size);
+        }
+        size = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        for (OutputStream target : targets) {
+            target.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (OutputStream target : targets) {
+            if (target != System.out) {
+                target.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+import java.util.Arrays;
+
+public class QuantizedGotoh {
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+
+    private final SubstitutionMatrix substitutionMatrix;
+    private final int scale;
+    private final int[][] matrix;
+    private final int gapOpenPenalty;
+    private final int gapExtendPenalty;
+    private final AlignmentAlgorithm parentAlgorithm;
+
+    public QuantizedGotoh(SubstitutionMatrix substitutionMatrix, AlignmentAlgorithm parent) {
+        this.substitutionMatrix = substitutionMatrix;
+        this.parentAlgorithm = parent;
+        this.scale = substitutionMatrix.getQuantizationScale(parent.getGapOpenPenalty(), parent.getGapExtendPenalty());
+        this.matrix = substitutionMatrix.getQuantizedMatrix(scale);
+        this.gapOpenPenalty = (int) Math.round(parent.getGapOpenPenalty() * scale);
+        this.gapExtendPenalty = (int) Math.round(parent.getGapExtendPenalty() * scale);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    // false when int scores of the pair could overflow; the double kernels are used instead
+    public boolean fits(int m, int n) {
+        return substitutionMatrix.fitsQuantized(scale, parentAlgorithm.getGapOpenPenalty(),
+                parentAlgorithm.getGapExtendPenalty(), m, n);
+    }
+
+    // M is kept flat in the thread's DPWorkspace, row-major with stride n+1; E and F are kept per row
+    public AlignmentAlgorithm.AlignmentResult globalAlignment(String seq1, String seq2) {
+        byte[] a = substitutionMatrix.encode(seq1);
+        byte[] b = substitutionMatrix.encode(seq2);
+        int m = a.length;
+        int n = b.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] M = workspace.intMatrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+
+        M[0] = 0;
+        for (int i = 1; i <= m; i++) {
+            M[i * (n + 1)] = gapOpenPenalty + i * gapExtendPenalty;
+            traceback.set(i, 0, Traceback.FROM_F);
+        }
+        for (int j = 1; j <= n; j++) {
+            M[j] = gapOpenPenalty + j * gapExtendPenalty;
+            traceback.set(0, j, Traceback.FROM_E);
+        }
+
+        fill(M, traceback, a, b, false);
+
+        return backtrack(M, traceback, seq1, seq2, m, n, M[m * (n + 1) + n]);
+    }
+
+    public AlignmentAlgorithm.AlignmentResult localAlignment(String seq1, String seq2) {
+        byte[] a = substitutionMatrix.encode(seq1);
+        byte[] b = substitutionMatrix.encode(seq2);
+        int m = a.length;
+        int n = b.length;
+        int width = n + 1;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] M = workspace.intMatrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+        Arrays.fill(M, 0, width, 0);
+        for (int i = 1; i <= m; i++) {
+            M[i * width] = 0;
+        }
+
+        int[] max = fill(M, traceback, a, b, true);
+
+        return backtrackLocal(M, traceback, seq1, seq2, max[0], max[1], M[max[0] * width + max[1]]);
+    }
+
+    public AlignmentAlgorithm.AlignmentResult freeShiftAlignment(String seq1, String seq2) {
+        byte[] a = substitutionMatrix.encode(seq1);
+        byte[] b = substitutionMatrix.encode(seq2);
+        int m = a.length;
+        int n = b.length;
+        int width = n + 1;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] M = workspace.intMatrix(m, n);
+        Traceback traceback = workspace.traceback(m, n);
+        Arrays.fill(M, 0, width, 0);
+        for (int i = 1; i <= m; i++) {
+            M[i * width] = 0;
+        }
+
+        fill(M, traceback, a, b, false);
+
+        int maxScore = NEGATIVE_INFINITY;
+        int maxI = m, maxJ = n;
+        for (int j = 0; j <= n; j++) {
+            if (M[m * width + j] > maxScore) {
+                maxScore = M[m * width + j];
+                maxI = m;
+                maxJ = j;
+            }
+        }
+        for (int i = 0; i <= m; i++) {
+            if (M[i * width + n] > maxScore) {
+                maxScore = M[i * width + n];
+                maxI = i;
+                maxJ = n;
+            }
+        }
+
+        return backtrackFreeshift(M, traceback, seq1, seq2, maxI, maxJ, maxScore);
+    }
+
+    // Gotoh recurrence with E and F kept per row; the first row and column of M are initialised by
+    // the caller. Each cell records its traceback code in traceback. Local fills return the first
+    // cell holding the maximum in row-major order.
+    private int[] fill(int[] M, Traceback traceback, byte[] a, byte[] b, boolean local) {
+        int n = b.length;
+        int width = n + 1;
+        int[] F = DPWorkspace.get().intRow(0, n);
+        Arrays.fill(F, 0, width, NEGATIVE_INFINITY);
+
+        int maxScore = 0;
+        int maxI = 0, maxJ = 0;
+        for (int i = 1; i <= a.length; i++) {
+            int[] scores = matrix[a[i-1]];
+            int row = i * width;
+            int above = row - width;
+            int E = NEGATIVE_INFINITY;
+            for (int j = 1; j <= n; j++) {
+                int openE = M[row + j - 1] + gapOpenPenalty + gapExtendPenalty;
+                E = Math.max(openE, E + gapExtendPenalty);
+
+                int openF = M[above + j] + gapOpenPenalty + gapExtendPenalty;
+                F[j] = Math.max(openF, F[j] + gapExtendPenalty);
+
+                int match = M[above + j - 1] + scores[b[j-1]];
+                int h = Math.max(Math.max(F[j], E), match);
+                if (local) {
+                    h = Math.max(0, h);
+                    if (h > maxScore) {
+                        maxScore = h;
+                        maxI = i;
+                        maxJ = j;
+                    }
+                }
+                M[row + j] = h;
+                traceback.set(i, j, tracebackCode(h, E, F[j], openE, openF, local));
+            }
+        }
+        return new int[]{maxI, maxJ};
+    }
+
+    public AlignmentAlgorithm.ScoreResult globalScore(String seq1, String seq2) {
+        return globalScore(substitutionMatrix.encode(seq1), substitutionMatrix.encode(seq2));
+    }
+
+    public AlignmentAlgorithm.ScoreResult globalScore(byte[] a, byte[] b) {
+        int m = a.length;
+        int n = b.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] prevM = workspace.intRow(0, n);
+        int[] currM = workspace.intRow(1, n);
+        int[] F = workspace.intRow(2, n);
+
+        prevM[0] = 0;
+        F[0] = NEGATIVE_INFINITY;
+        for (int j = 1; j <= n; j++) {
+            prevM[j] = gapOpenPenalty + j * gapExtendPenalty;
+            F[j] = NEGATIVE_INFINITY;
+        }
+
+        for (int i = 1; i <= m; i++) {
+            currM[0] = gapOpenPenalty + i * gapExtendPenalty;
+            int E = NEGATIVE_INFINITY;
+            int[] scores = matrix[a[i-1]];
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                currM[j] = Math.max(Math.max(F[j], E), prevM[j-1] + scores[b[j-1]]);
+            }
+            int[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
+
+        return new AlignmentAlgorithm.ScoreResult(toScore(prevM[n]), m, n);
+    }
+
+    public AlignmentAlgorithm.ScoreResult localScore(String seq1, String seq2) {
+        return localScore(substitutionMatrix.encode(seq1), substitutionMatrix.encode(seq2));
+    }
+
+    public AlignmentAlgorithm.ScoreResult localScore(byte[] a, byte[] b) {
+        int m = a.length;
+        int n = b.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] prevM = workspace.intRow(0, n);
+        int[] currM = workspace.intRow(1, n);
+        int[] F = workspace.intRow(2, n);
+        Arrays.fill(prevM, 0, n + 1, 0);
+        Arrays.fill(F, 0, n + 1, NEGATIVE_INFINITY);
+
+        int maxScore = 0;
+        int maxI = 0, maxJ = 0;
+
+        for (int i = 1; i <= m; i++) {
+            currM[0] = 0;
+            int E = NEGATIVE_INFINITY;
+            int[] scores = matrix[a[i-1]];
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                currM[j] = Math.max(0, Math.max(Math.max(prevM[j-1] + scores[b[j-1]], E), F[j]));
+
+                if (currM[j] > maxScore) {
+                    maxScore = currM[j];
+                    maxI = i;
+                    maxJ = j;
+                }
+            }
+            int[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
+
+        return new AlignmentAlgorithm.ScoreResult(toScore(maxScore), maxI, maxJ);
+    }
+
+    public AlignmentAlgorithm.ScoreResult freeShiftScore(String seq1, String seq2) {
+        return freeShiftScore(substitutionMatrix.encode(seq1), substitutionMatrix.encode(seq2));
+    }
+
+    public AlignmentAlgorithm.ScoreResult freeShiftScore(byte[] a, byte[] b) {
+        int m = a.length;
+        int n = b.length;
+        DPWorkspace workspace = DPWorkspace.get();
+        int[] prevM = workspace.intRow(0, n);
+        int[] currM = workspace.intRow(1, n);
+        int[] F = workspace.intRow(2, n);
+        Arrays.fill(prevM, 0, n + 1, 0);
+        Arrays.fill(F, 0, n + 1, NEGATIVE_INFINITY);
+
+        int colMax = 0;
+        int colI = 0;
+
+        for (int i = 1; i <= m; i++) {
+            currM[0] = 0;
+            int E = NEGATIVE_INFINITY;
+            int[] scores = matrix[a[i-1]];
+            for (int j = 1; j <= n; j++) {
+                E = Math.max(currM[j-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                F[j] = Math.max(prevM[j] + gapOpenPenalty + gapExtendPenalty, F[j] + gapExtendPenalty);
+                currM[j] = Math.max(Math.max(F[j], E), prevM[j-1] + scores[b[j-1]]);
+            }
+            if (currM[n] > colMax) {
+                colMax = currM[n];
+                colI = i;
+            }
+            int[] tmp = prevM;
+            prevM = currM;
+            currM = tmp;
+        }
+
+        int maxScore = NEGATIVE_INFINITY;
+        int maxI = m, maxJ = n;
+        for (int j = 0; j <= n; j++) {
+            if (prevM[j] > maxScore) {
+                maxScore = prevM[j];
+                maxJ = j;
+            }
+        }
+        if (colMax > maxScore) {
+            maxScore = colMax;
+            maxI = colI;
+            maxJ = n;
+        }
+
+        return new AlignmentAlgorithm.ScoreResult(toScore(maxScore), maxI, maxJ);
+    }
+
+    // Vertical gap before horizontal gap before diagonal, opening preferred over extending
+    private static int tracebackCode(int h, int e, int f, int openE, int openF, boolean local) {
+        int code;
+        if (h == f) {
+            code = Traceback.FROM_F;
+        } else if (h == e) {
+            code = Traceback.FROM_E;
+        } else if (local && h == 0) {
+            code = Traceback.STOP;
+        } else {
+            code = Traceback.DIAGONAL;
+        }
+        if (e == openE) {
+            code |= Traceback.E_OPEN;
+        }
+        if (f == openF) {
+            code |= Traceback.F_OPEN;
+        }
+        return code;
+    }
+
+    private AlignmentAlgorithm.AlignmentResult backtrack(int[] M, Traceback traceback, String seq1, String seq2,
+                                                         int i, int j, int score) {
+        Cigar.Builder path = new Cigar.Builder();
+        int[] end = traceback.walk(i, j, path);
+        path.add(Cigar.DELETION, end[0]);
+        path.add(Cigar.INSERTION, end[1]);
+
+        return parentAlgorithm.createResult(seq1, seq2, path.buildReversed(),
+                toScore(score), capturedMatrix(M, traceback), parentAlgorithm.capturedTraceback(traceback));
+    }
+
+    private AlignmentAlgorithm.AlignmentResult backtrackLocal(int[] M, Traceback traceback, String seq1, String seq2,
+                                                              int maxI, int maxJ, int score) {
+        Cigar.Builder path = new Cigar.Builder();
+        int[] start = traceback.walk(maxI, maxJ, path);
+
+        Cigar cigar = AlignmentAlgorithm.padLocal(seq1.length(), seq2.length(), path.buildReversed(),
+                start[0], start[1], maxI, maxJ);
+        return parentAlgorithm.createResult(seq1, seq2, cigar, toScore(score),
+                capturedMatrix(M, traceback), parentAlgorithm.capturedTraceback(traceback));
+    }
+
+    private AlignmentAlgorithm.AlignmentResult backtrackFreeshift(int[] M, Traceback traceback, String seq1, String seq2,
+                                                                  int maxI, int maxJ, int score) {
+        Cigar.Builder path = new Cigar.Builder();
+        int[] start = traceback.walk(maxI, maxJ, path);
+
+        Cigar cigar = AlignmentAlgorithm.padFreeshift(seq1.length(), seq2.length(), path.buildReversed(),
+                start[0], start[1], maxI, maxJ);
+        return parentAlgorithm.createResult(seq1, seq2, cigar, toScore(score),
+                capturedMatrix(M, traceback), parentAlgorithm.capturedTraceback(traceback));
+    }
+
+    // The workspace is reused by the next alignment, so results only keep copies, and only on request
+    private double[][] capturedMatrix(int[] M, Traceback traceback) {
+        if (!parentAlgorithm.capturesMatrices()) {
+            return null;
+        }
+        int rows = traceback.rows();
+        int columns = traceback.columns();
+        double[][] result = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                result[i][j] = toScore(M[i * columns + j]);
+            }
+        }
+        return result;
+    }
+
+    private double toScore(int value) {
+        return (double) value / scale;
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Wall-clock scaling of the parallel kernels at 1, 2, 4 and all available threads: the wavefront
+// kernel on one long pair, and a batch run of Alignment with --threads (which writes its results
+// to the working directory).
+// Usage: java --add-modules jdk.incubator.vector ScalingTest MATRIX [LENGTH]
+public class ScalingTest {
+    private static final int NUM_ITERATIONS = 3;
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int DEFAULT_LENGTH = 6000;
+    private static final int BATCH_SEQUENCES = 200;
+    private static final int BATCH_LENGTH = 400;
+    private static final int BATCH_PAIRS = 1000;
+    private static final String AMINO_ACIDS = "ARNDCQEGHILKMFPSTWYV";
+    private static final Random random = new Random(42);
+
+    public static String generateRandomSequence(int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        return sequence.toString();
+    }
+
+    static List<Integer> threadCounts() {
+        List<Integer> counts = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[]{1, 2, 4, cores}) {
+            if (!counts.contains(threads)) {
+                counts.add(threads);
+            }
+        }
+        return counts;
+    }
+
+    // average milliseconds per run after warming up
+    static double averageTime(Runnable benchmark) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            benchmark.run();
+        }
+        long time = 0;
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            benchmark.run();
+            time += System.nanoTime() - startTime;
+        }
+        return (time / 1_000_000.0) / NUM_ITERATIONS;
+    }
+
+    static void report(FileWriter csvWriter, String name, int threads, double avgTime, double baseline)
+            throws IOException {
+        csvWriter.write(String.format("%s,%d,%.1f,%.2f%n", name, threads, avgTime, baseline / avgTime));
+        System.out.printf("%-25s %-10d %-15.1f %-10.2f%n", name, threads, avgTime, baseline / avgTime);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScalingTest MATRIX [LENGTH]");
+            System.exit(1);
+        }
+        SubstitutionMatrix matrix = new SubstitutionMatrix(args[0], false);
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LENGTH;
+        // the default gap penalties of Alignment
+        AlignmentAlgorithm algorithm = new AlignmentAlgorithm(matrix, -12, -1);
+        String seq1 = generateRandomSequence(length);
+        String seq2 = generateRandomSequence(length);
+
+        try (FileWriter csvWriter = new FileWriter("scaling_results.csv")) {
+            csvWriter.write("Benchmark,Threads,Time (ms),Speedup\n");
+            System.out.println("Cores available: " + Runtime.getRuntime().availableProcessors());
+            System.out.println("----------------------------------------");
+            System.out.printf("%-25s %-10s %-15s %-10s%n", "Benchmark", "Threads", "Time (ms)", "Speedup");
+            System.out.println("----------------------------------------");
+
+            // speedups are against the sequential score kernel
+            double baseline = averageTime(() -> algorithm.localScore(seq1, seq2));
+            report(csvWriter, "sequential " + length + "x" + length, 1, baseline, baseline);
+            for (int threads : threadCounts()) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                WavefrontGotoh wavefront = new WavefrontGotoh(algorithm, WavefrontGotoh.DEFAULT_TILE_SIZE, pool);
+                double avgTime = averageTime(() -> wavefront.localScore(seq1, seq2));
+                pool.shutdown();
+                report(csvWriter, "wavefront " + length + "x" + length, threads, avgTime, baseline);
+            }
+
+            File library = File.createTempFile("scaling", ".seqlib");
+            File pairs = File.createTempFile("scaling", ".pairs");
+            library.deleteOnExit();
+            pairs.deleteOnExit();
+            try (FileWriter out = new FileWriter(library)) {
+                for (int s = 0; s < BATCH_SEQUENCES; s++) {
+                    out.write("s" + s + ":" + generateRandomSequence(BATCH_LENGTH) + "\n");
+                }
+            }
+            try (FileWriter out = new FileWriter(pairs)) {
+                for (int p = 0; p < BATCH_PAIRS; p++) {
+                    out.write("s" + random.nextInt(BATCH_SEQUENCES) + " s" + random.nextInt(BATCH_SEQUENCES) + "\n");
+                }
+            }
+            String name = BATCH_PAIRS + " pairs of " + BATCH_LENGTH;
+            double batchBaseline = 0;
+            for (int threads : threadCounts()) {
+                String[] arguments = {"--pairs", pairs.getPath(), "--seqlib", library.getPath(), "-m", args[0],
+                        "--mode", "local", "--format", "score", "--quiet", "--threads", String.valueOf(threads)};
+                double avgTime = averageTime(() -> Alignment.main(arguments));
+                if (threads == 1) {
+                    batchBaseline = avgTime;
+                }
+                report(csvWriter, name, threads, avgTime, batchBaseline);
+            }
+            System.out.println("----------------------------------------");
+            System.out.println("\nResults have been saved to scaling_results.csv");
+        }
+    }
+}
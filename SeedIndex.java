@@ -0,0 +1,244 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Inverted index of the k-mers of a sequence library, for seed-and-extend prefiltering of --search.
+// Postings are stored per word in library order, as (sequence, position) pairs.
+public class SeedIndex {
+    public static final int DEFAULT_K = 3;
+    public static final double DEFAULT_WORD_THRESHOLD = 13.0;
+    public static final double DEFAULT_MIN_SCORE = 33.0;
+    // an ungapped extension stops once it falls this far below its best score
+    private static final double UNGAPPED_XDROP = 10.0;
+    private static final int MAX_WORDS = 1 << 24;
+
+    private final SubstitutionMatrix substitutionMatrix;
+    private final int k;
+    private final int alphabet;
+    private final byte[][] sequences;
+    // postings of word w are positions offsets[w] until offsets[w+1] of postSequence / postPosition
+    private final int[] offsets;
+    private final int[] postSequence;
+    private final int[] postPosition;
+
+    public static class Stats {
+        public long seeds;
+        public long extensions;
+    }
+
+    public SeedIndex(SubstitutionMatrix substitutionMatrix, List<ByteBuffer> library, int k) {
+        int alphabet = substitutionMatrix.getAminoAcids().size();
+        if (k < 1 || Math.pow(alphabet, k) > MAX_WORDS) {
+            throw new IllegalArgumentException("Invalid seed length: " + k);
+        }
+        this.substitutionMatrix = substitutionMatrix;
+        this.k = k;
+        this.alphabet = alphabet;
+        int words = (int) Math.pow(alphabet, k);
+
+        sequences = new byte[library.size()][];
+        offsets = new int[words + 1];
+        long total = 0;
+        for (int s = 0; s < sequences.length; s++) {
+            ByteBuffer sequence = library.get(s);
+            if (sequence == null) {
+                continue;
+            }
+            sequences[s] = substitutionMatrix.encode(sequence);
+            for (int p = 0; p + k <= sequences[s].length; p++) {
+                offsets[word(sequences[s], p) + 1]++;
+                total++;
+            }
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Sequence library too large for the seed index: " + total + " words");
+        }
+        for (int w = 0; w < words; w++) {
+            offsets[w + 1] += offsets[w];
+        }
+
+        postSequence = new int[(int) total];
+        postPosition = new int[(int) total];
+        int[] next = Arrays.copyOf(offsets, words);
+        for (int s = 0; s < sequences.length; s++) {
+            if (sequences[s] == null) {
+                continue;
+            }
+            for (int p = 0; p + k <= sequences[s].length; p++) {
+                int w = word(sequences[s], p);
+                postSequence[next[w]] = s;
+                postPosition[next[w]] = p;
+                next[w]++;
+            }
+        }
+    }
+
+    private int word(byte[] sequence, int start) {
+        int w = 0;
+        for (int c = start; c < start + k; c++) {
+            w = w * alphabet + sequence[c];
+        }
+        return w;
+    }
+
+    // Marks every library sequence with an ungapped hit of at least minScore around a seed. Seeds are
+    // the query words and their neighbourhood words scoring at least wordThreshold against them.
+    public boolean[] candidates(String query, double wordThreshold, double minScore, Stats stats) {
+        byte[] a = substitutionMatrix.encode(query);
+        double[][] profile = substitutionMatrix.getProfile(a);
+        boolean[] candidate = new boolean[sequences.length];
+        int m = a.length;
+        if (m < k) {
+            return candidate;
+        }
+
+        // neighbourhood words of every query position, collected once
+        int[][] neighbours = new int[m - k + 1][];
+        for (int i = 0; i + k <= m; i++) {
+            neighbours[i] = neighbourhood(a, profile, i, wordThreshold);
+        }
+
+        // bucket the seeds by library sequence, in query order within a sequence
+        int[] counts = new int[sequences.length + 1];
+        for (int[] words : neighbours) {
+            for (int w : words) {
+                for (int h = offsets[w]; h < offsets[w + 1]; h++) {
+                    counts[postSequence[h] + 1]++;
+                }
+            }
+        }
+        for (int s = 0; s < sequences.length; s++) {
+            counts[s + 1] += counts[s];
+        }
+        int[] seedQuery = new int[counts[sequences.length]];
+        int[] seedTarget = new int[seedQuery.length];
+        int[] next = Arrays.copyOf(counts, sequences.length);
+        for (int i = 0; i < neighbours.length; i++) {
+            for (int w : neighbours[i]) {
+                for (int h = offsets[w]; h < offsets[w + 1]; h++) {
+                    int slot = next[postSequence[h]]++;
+                    seedQuery[slot] = i;
+                    seedTarget[slot] = postPosition[h];
+                }
+            }
+        }
+        stats.seeds += seedQuery.length;
+
+        // end of the last extension per diagonal (target - query + m), so seeds inside it are skipped
+        int[] extendedTo = new int[0];
+        for (int s = 0; s < sequences.length; s++) {
+            if (counts[s] == counts[s + 1]) {
+                continue;
+            }
+            byte[] b = sequences[s];
+            if (extendedTo.length < m + b.length + 1) {
+                extendedTo = new int[m + b.length + 1];
+            }
+            Arrays.fill(extendedTo, 0, m + b.length + 1, -1);
+
+            for (int h = counts[s]; h < counts[s + 1]; h++) {
+                int i = seedQuery[h];
+                int j = seedTarget[h];
+                int diagonal = j - i + m;
+                if (i < extendedTo[diagonal]) {
+                    continue;
+                }
+                stats.extensions++;
+                if (extend(profile, b, i, j, diagonal, extendedTo, minScore)) {
+                    candidate[s] = true;
+                    break;
+                }
+            }
+        }
+        return candidate;
+    }
+
+    // Ungapped X-drop extension of the seed at query i / target j in both directions. Records how far
+    // the diagonal was covered and whether the best segment reaches minScore.
+    private boolean extend(double[][] profile, byte[] b, int i, int j, int diagonal, int[] extendedTo,
+                       double minScore) {
+        int m = profile[0].length;
+        double seed = 0;
+        for (int c = 0; c < k; c++) {
+            seed += profile[b[j + c]][i + c];
+        }
+
+        double score = seed;
+        double bestRight = seed;
+        int right = i + k;
+        for (int qi = i + k, tj = j + k; qi < m && tj < b.length; qi++, tj++) {
+            score += profile[b[tj]][qi];
+            if (score > bestRight) {
+                bestRight = score;
+                right = qi + 1;
+            } else if (score < bestRight - UNGAPPED_XDROP) {
+                break;
+            }
+        }
+
+        score = bestRight;
+        double best = bestRight;
+        for (int qi = i - 1, tj = j - 1; qi >= 0 && tj >= 0; qi--, tj--) {
+            score += profile[b[tj]][qi];
+            if (score > best) {
+                best = score;
+            } else if (score < best - UNGAPPED_XDROP) {
+                break;
+            }
+        }
+
+        extendedTo[diagonal] = right;
+        return best >= minScore;
+    }
+
+    // Words scoring at least threshold against query[i..i+k), plus the query word itself
+    private int[] neighbourhood(byte[] a, double[][] profile, int i, double threshold) {
+        // best score still reachable from word position c on
+        double[] remaining = new double[k + 1];
+        for (int c = k - 1; c >= 0; c--) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int res = 0; res < alphabet; res++) {
+                best = Math.max(best, profile[res][i + c]);
+            }
+            remaining[c] = remaining[c + 1] + best;
+        }
+
+        int[] words = new int[16];
+        int count = 0;
+        int[] residue = new int[k];
+        double[] prefix = new double[k + 1];
+        // number of leading word positions equal to the query
+        int[] exact = new int[k + 1];
+        int c = 0;
+        residue[0] = -1;
+        while (c >= 0) {
+            residue[c]++;
+            if (residue[c] == alphabet) {
+                c--;
+                continue;
+            }
+            prefix[c + 1] = prefix[c] + profile[residue[c]][i + c];
+            exact[c + 1] = exact[c] == c && residue[c] == a[i + c] ? c + 1 : exact[c];
+            boolean queryWord = exact[c + 1] == c + 1;
+            if (prefix[c + 1] + remaining[c + 1] < threshold && !queryWord) {
+                continue;
+            }
+            if (c + 1 < k) {
+                c++;
+                residue[c] = -1;
+                continue;
+            }
+            if (prefix[k] >= threshold || queryWord) {
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                int w = 0;
+                for (int r : residue) {
+                    w = w * alphabet + r;
+                }
+                words[count++] = w;
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+}
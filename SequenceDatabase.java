@@ -0,0 +1,483 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Sequence library in the binary layout written by build-db:
+//   header   magic, version, count, id bytes, residue bytes
+//   tables   id offsets (count+1 ints), sequence offsets (count+1 longs),
+//            entries sorted by id and by lower-case id (count ints each)
+//   blocks   ids, then residues, both ASCII without separators
+// Binary files are memory-mapped. Text libraries ("id:sequence" lines or FASTA, optionally gzipped) are
+// converted into the same layout with the residues in direct buffers, so residues never live on the
+// Java heap. Residues are split into segments of whole sequences, so every sequence is a view of a
+// single buffer.
+// Lookups follow the text loader: an exact id, else the lower-cased form of an id.
+public class SequenceDatabase {
+    private static final int MAGIC = 0x53514442; // "SQDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    // residues are split so libraries past 2 GB can be mapped
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    private final int count;
+    private final ByteBuffer tables;
+    private final int sequenceOffsetsStart;
+    private final int byIdStart;
+    private final int byLowerIdStart;
+    private final int idBlockStart;
+    // residue offset of the first sequence of each segment
+    private final long[] segmentStarts;
+    private final ByteBuffer[] residues;
+
+    private SequenceDatabase(ByteBuffer tables, long[] segmentStarts, ByteBuffer[] residues) throws IOException {
+        if (tables.getInt(0) != MAGIC || tables.getInt(4) != VERSION) {
+            throw new IOException("Not a sequence database (version " + VERSION + ")");
+        }
+        this.count = tables.getInt(8);
+        this.tables = tables;
+        this.sequenceOffsetsStart = HEADER_BYTES + 4 * (count + 1);
+        this.byIdStart = sequenceOffsetsStart + 8 * (count + 1);
+        this.byLowerIdStart = byIdStart + 4 * count;
+        this.idBlockStart = byLowerIdStart + 4 * count;
+        this.segmentStarts = segmentStarts;
+        this.residues = residues;
+    }
+
+    // A database file written by build-db, or a text library of "id:sequence" lines; stripGaps drops
+    // '-' from text libraries, so aligned libraries like pairwise_seqs2.txt read as their plain sequences
+    public static SequenceDatabase open(String filename, boolean stripGaps) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            if (in.available() < 8 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return fromText(filename, stripGaps);
+            }
+        }
+        return map(filename);
+    }
+
+    private static SequenceDatabase map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            int count = header.getInt(8);
+            int idBytes = header.getInt(12);
+            long residueBytes = header.getLong(16);
+            long tableBytes = HEADER_BYTES + 4L * (count + 1) + 8L * (count + 1) + 8L * count + idBytes;
+            if (tableBytes > Integer.MAX_VALUE || tableBytes + residueBytes != channel.size()) {
+                throw new IOException("Corrupt sequence database: " + filename);
+            }
+
+            MappedByteBuffer tables = channel.map(FileChannel.MapMode.READ_ONLY, 0, tableBytes);
+            long[] segmentStarts = segmentStarts(tables, count);
+            ByteBuffer[] residues = new ByteBuffer[segmentStarts.length];
+            for (int s = 0; s < residues.length; s++) {
+                long end = s + 1 < residues.length ? segmentStarts[s + 1] : residueBytes;
+                residues[s] = channel.map(FileChannel.MapMode.READ_ONLY, tableBytes + segmentStarts[s],
+                        end - segmentStarts[s]);
+            }
+            return new SequenceDatabase(tables, segmentStarts, residues);
+        }
+    }
+
+    // Segments hold whole sequences and at most SEGMENT_BYTES, unless one sequence alone is longer
+    private static long[] segmentStarts(ByteBuffer tables, int count) {
+        int offsets = HEADER_BYTES + 4 * (count + 1);
+        long[] starts = new long[1];
+        int segments = 1;
+        for (int e = 0; e < count; e++) {
+            long start = tables.getLong(offsets + 8 * e);
+            long end = tables.getLong(offsets + 8 * (e + 1));
+            if (end - starts[segments - 1] > SEGMENT_BYTES && start > starts[segments - 1]) {
+                if (segments == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * segments);
+                }
+                starts[segments++] = start;
+            }
+        }
+        return Arrays.copyOf(starts, segments);
+    }
+
+    // Text libraries, plain or gzip-compressed: "id:sequence" lines, or FASTA
+    private static SequenceDatabase fromText(String filename, boolean stripGaps) throws IOException {
+        TextLibrary library = new TextLibrary(new ResidueArena(), stripGaps);
+        try (BufferedReader reader = GzipInput.openReader(filename)) {
+            library.read(reader);
+        }
+        return library.toDatabase();
+    }
+
+    // Converts a text library into a database file; returns the number of sequences written.
+    // Plain text is read twice, first for the ids and lengths, then for the residues, which are written
+    // straight to their place in the file. Compressed text is only read once, through the arena.
+    public static int build(String textFile, String databaseFile) throws IOException {
+        if (GzipInput.isCompressed(textFile)) {
+            SequenceDatabase library = fromText(textFile, false);
+            try (FileChannel channel = openForWriting(databaseFile)) {
+                long position = writeFully(channel, library.tables.duplicate(), 0);
+                for (ByteBuffer segment : library.residues) {
+                    position = writeFully(channel, segment.duplicate(), position);
+                }
+            }
+            return library.size();
+        }
+
+        TextLibrary library = new TextLibrary(null, false);
+        try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+            library.read(reader);
+        }
+        long[] offsets = library.offsets();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTables(library.ids, offsets, new DataOutputStream(bytes));
+        byte[] tables = bytes.toByteArray();
+        try (FileChannel channel = openForWriting(databaseFile);
+             BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+            writeFully(channel, ByteBuffer.wrap(tables), 0);
+            library.writeResidues(reader, offsets, (offset, sequence, length) ->
+                    writeFully(channel, ByteBuffer.wrap(sequence, 0, length), tables.length + offset));
+        }
+        return library.size();
+    }
+
+    private static FileChannel openForWriting(String filename) throws IOException {
+        return FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static int segment(long[] segmentStarts, long offset) {
+        int s = Arrays.binarySearch(segmentStarts, offset);
+        return s >= 0 ? s : -s - 2;
+    }
+
+    // Append-only residue store in direct buffers. A sequence never spans two buffers.
+    private static class ResidueArena {
+        private static final int CHUNK_BYTES = 16 << 20;
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long[] starts = new long[16];
+        private ByteBuffer current;
+        private long size;
+
+        // arena offset of the appended residues
+        long append(byte[] residues, int length) {
+            long offset = reserve(length);
+            current.put(residues, 0, length);
+            return offset;
+        }
+
+        long append(ByteBuffer residues) {
+            long offset = reserve(residues.remaining());
+            current.put(residues);
+            return offset;
+        }
+
+        private long reserve(int length) {
+            if (current == null || current.remaining() < length) {
+                if (chunks.size() == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * starts.length);
+                }
+                starts[chunks.size()] = size;
+                current = ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, length));
+                chunks.add(current);
+            }
+            long offset = size;
+            size += length;
+            return offset;
+        }
+
+        ByteBuffer view(long offset, int length) {
+            if (length == 0) {
+                return ByteBuffer.allocate(0);
+            }
+            int s = Arrays.binarySearch(starts, 0, chunks.size(), offset);
+            s = s >= 0 ? s : -s - 2;
+            return chunks.get(s).slice((int) (offset - starts[s]), length);
+        }
+
+        long[] segmentStarts() {
+            return Arrays.copyOf(starts, Math.max(chunks.size(), 1));
+        }
+
+        ByteBuffer[] segments() {
+            if (chunks.isEmpty()) {
+                return new ByteBuffer[]{ByteBuffer.allocate(0)};
+            }
+            ByteBuffer[] segments = new ByteBuffer[chunks.size()];
+            for (int s = 0; s < segments.length; s++) {
+                segments[s] = chunks.get(s).slice(0, chunks.get(s).position());
+            }
+            return segments;
+        }
+    }
+
+    private interface ResidueSink {
+        void write(long offset, byte[] sequence, int length) throws IOException;
+    }
+
+    private interface RecordHandler {
+        void record(String id) throws IOException;
+    }
+
+    // Sequences of a text library: "id:sequence" lines, or FASTA records whose id is the first word of
+    // the header. A repeated id keeps its first position and its last sequence. With an arena the
+    // residues go off-heap as they are read; without one only the lengths are kept, for a second pass
+    // that writes the residues out. Only ids and per-record numbers are on the heap.
+    private static class TextLibrary {
+        private final Map<String, Integer> entries = new HashMap<>();
+        private final List<String> ids = new ArrayList<>();
+        private final ResidueArena arena;
+        private final boolean stripGaps;
+        // arena offset and length of every sequence read, and the one each entry keeps
+        private long[] recordOffsets = new long[16];
+        private int[] recordLengths = new int[16];
+        private int records;
+        private int[] kept = new int[16];
+        // residues of the sequence being read
+        private byte[] sequence = new byte[256];
+        private int length;
+
+        TextLibrary(ResidueArena arena, boolean stripGaps) {
+            this.arena = arena;
+            this.stripGaps = stripGaps;
+        }
+
+        void read(BufferedReader reader) throws IOException {
+            read(reader, this::add);
+        }
+
+        // Second pass over the same text: every kept sequence goes to its offset in the residue block
+        void writeResidues(BufferedReader reader, long[] offsets, ResidueSink sink) throws IOException {
+            int[] record = {0};
+            read(reader, id -> {
+                int entry = entries.get(id);
+                if (kept[entry] == record[0]++) {
+                    sink.write(offsets[entry], sequence, length);
+                }
+            });
+        }
+
+        private void read(BufferedReader reader, RecordHandler handler) throws IOException {
+            String line;
+            boolean first = true;
+            boolean fasta = false;
+            String id = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (first) {
+                    fasta = line.charAt(0) == '>';
+                    first = false;
+                }
+
+                if (!fasta) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) continue;
+                    length = 0;
+                    appendResidues(line, colon + 1, false);
+                    handler.record(line.substring(0, colon).trim());
+                } else if (line.charAt(0) == '>') {
+                    if (id != null) {
+                        handler.record(id);
+                    }
+                    String header = line.substring(1).trim();
+                    int blank = 0;
+                    while (blank < header.length() && header.charAt(blank) > ' ') blank++;
+                    id = header.substring(0, blank);
+                    length = 0;
+                } else if (id != null) {
+                    appendResidues(line, 0, true);
+                }
+            }
+            if (id != null) {
+                handler.record(id);
+            }
+        }
+
+        // Residues from start on, without leading blanks (or any blanks in FASTA), and without '-' if stripGaps
+        private void appendResidues(String line, int start, boolean skipBlanks) {
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') start++;
+            if (sequence.length < length + end - start) {
+                sequence = Arrays.copyOf(sequence, Math.max(2 * sequence.length, length + end - start));
+            }
+            for (int c = start; c < end; c++) {
+                char residue = line.charAt(c);
+                if (skipBlanks && residue <= ' ' || stripGaps && residue == '-') continue;
+                sequence[length++] = (byte) (residue <= 0xFF ? residue : '?');
+            }
+        }
+
+        private void add(String id) {
+            if (records == recordOffsets.length) {
+                recordOffsets = Arrays.copyOf(recordOffsets, 2 * records);
+                recordLengths = Arrays.copyOf(recordLengths, 2 * records);
+            }
+            if (arena != null) {
+                recordOffsets[records] = arena.append(sequence, length);
+            }
+            recordLengths[records] = length;
+
+            Integer entry = entries.get(id);
+            if (entry == null) {
+                entry = ids.size();
+                entries.put(id, entry);
+                ids.add(id);
+                if (entry == kept.length) {
+                    kept = Arrays.copyOf(kept, 2 * entry);
+                }
+            }
+            kept[entry] = records++;
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        // residue offsets of the kept sequences, in entry order
+        long[] offsets() {
+            int count = ids.size();
+            long[] offsets = new long[count + 1];
+            for (int e = 0; e < count; e++) {
+                offsets[e + 1] = offsets[e] + recordLengths[kept[e]];
+            }
+            return offsets;
+        }
+
+        SequenceDatabase toDatabase() throws IOException {
+            int count = ids.size();
+            ResidueArena residues = arena;
+            if (records > count) {
+                // repeated ids left replaced sequences behind; the kept ones are copied in entry order
+                residues = new ResidueArena();
+                for (int e = 0; e < count; e++) {
+                    residues.append(arena.view(recordOffsets[kept[e]], recordLengths[kept[e]]));
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeTables(ids, offsets(), new DataOutputStream(bytes));
+            return new SequenceDatabase(ByteBuffer.wrap(bytes.toByteArray()), residues.segmentStarts(),
+                    residues.segments());
+        }
+    }
+
+    private static void writeTables(List<String> ids, long[] offsets, DataOutputStream out) throws IOException {
+        int count = ids.size();
+        byte[][] idBytes = new byte[count][];
+        String[] lowerIds = new String[count];
+        int idBlockBytes = 0;
+        for (int e = 0; e < count; e++) {
+            idBytes[e] = ids.get(e).getBytes(StandardCharsets.ISO_8859_1);
+            lowerIds[e] = ids.get(e).toLowerCase();
+            idBlockBytes += idBytes[e].length;
+        }
+        Integer[] byId = sortedIndices(ids);
+        Integer[] byLowerId = sortedIndices(Arrays.asList(lowerIds));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        out.writeInt(idBlockBytes);
+        out.writeLong(offsets[count]);
+        int idOffset = 0;
+        out.writeInt(0);
+        for (byte[] id : idBytes) {
+            idOffset += id.length;
+            out.writeInt(idOffset);
+        }
+        for (long offset : offsets) {
+            out.writeLong(offset);
+        }
+        for (int index : byId) {
+            out.writeInt(index);
+        }
+        for (int index : byLowerId) {
+            out.writeInt(index);
+        }
+        for (byte[] id : idBytes) {
+            out.write(id);
+        }
+        out.flush();
+    }
+
+    private static Integer[] sortedIndices(List<String> keys) {
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> keys.get(x).compareTo(keys.get(y)));
+        return order;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String id(int index) {
+        int start = tables.getInt(HEADER_BYTES + 4 * index);
+        int end = tables.getInt(HEADER_BYTES + 4 * (index + 1));
+        byte[] id = new byte[end - start];
+        tables.get(idBlockStart + start, id);
+        return new String(id, StandardCharsets.ISO_8859_1);
+    }
+
+    // Read-only view of the residues of an entry, one ASCII byte each; nothing is copied
+    public ByteBuffer residues(int index) {
+        long start = tables.getLong(sequenceOffsetsStart + 8 * index);
+        long end = tables.getLong(sequenceOffsetsStart + 8 * (index + 1));
+        if (start == end) {
+            return ByteBuffer.allocate(0);
+        }
+        int s = segment(segmentStarts, start);
+        return residues[s].slice((int) (start - segmentStarts[s]), (int) (end - start)).asReadOnlyBuffer();
+    }
+
+    public String sequence(int index) {
+        ByteBuffer view = residues(index);
+        byte[] sequence = new byte[view.remaining()];
+        view.get(sequence);
+        return new String(sequence, StandardCharsets.ISO_8859_1);
+    }
+
+    // Entry of an id, or of an id whose lower-cased form is key; -1 if there is none
+    public int indexOf(String key) {
+        int index = find(key, byIdStart, false);
+        return index >= 0 ? index : find(key, byLowerIdStart, true);
+    }
+
+    public boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public String sequence(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : sequence(index);
+    }
+
+    private int find(String key, int tableStart, boolean lowerCase) {
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int index = tables.getInt(tableStart + 4 * mid);
+            String id = lowerCase ? id(index).toLowerCase() : id(index);
+            int cmp = id.compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
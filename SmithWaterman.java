@@ -16,26 +16,31 @@ public class SmithWaterman {
     public AlignmentAlgorithm.AlignmentResult computeAlignment() {
         int m = seq1.length();
         int n = seq2.length();
-        double[][] dp = new double[m + 1][n + 1];
-        int[][] backtrack = new int[m + 1][n + 1];
+        byte[] a = parentAlgorithm.encode(seq1);
+        double[][] profile = parentAlgorithm.getProfile(seq2);
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] dp = workspace.matrix(m, n);
+        Traceback backtrack = workspace.traceback(m, n);
+        int width = n + 1;
 
         for (int i = 0; i <= m; i++) {
-            dp[i][0] = 0;
-            backtrack[i][0] = 3;
+            dp[i * width] = 0;
+            backtrack.set(i, 0, 3);
         }
         for (int j = 0; j <= n; j++) {
-            dp[0][j] = 0;
-            backtrack[0][j] = 3;
+            dp[j] = 0;
+            backtrack.set(0, j, 3);
         }
 
         double maxScore = 0;
         int maxI = 0, maxJ = 0;
 
         for (int i = 1; i <= m; i++) {
+            double[] scores = profile[a[i - 1]];
             for (int j = 1; j <= n; j++) {
-                double match = dp[i - 1][j - 1] + parentAlgorithm.getSubstitutionScore(seq1.charAt(i - 1), seq2.charAt(j - 1));
-                double delete = dp[i - 1][j] + gapExtendPenalty;
-                double insert = dp[i][j - 1] + gapExtendPenalty;
+                double match = dp[(i - 1) * width + j - 1] + scores[j - 1];
+                double delete = dp[(i - 1) * width + j] + gapExtendPenalty;
+                double insert = dp[i * width + j - 1] + gapExtendPenalty;
 
                 double currentScore = 0;
                 int backtrackDir = 3;
@@ -55,8 +60,8 @@ public class SmithWaterman {
                     backtrackDir = 0;
                 }
 
-                dp[i][j] = currentScore;
-                backtrack[i][j] = backtrackDir;
+                dp[i * width + j] = currentScore;
+                backtrack.set(i, j, backtrackDir);
 
                 if (currentScore > maxScore) {
                     maxScore = currentScore;
@@ -67,88 +72,58 @@ public class SmithWaterman {
         }
 
 
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
+        Cigar.Builder path = new Cigar.Builder();
         int i = maxI, j = maxJ;
 
-        while (i > 0 && j > 0 && backtrack[i][j] != 3) {
-            if (backtrack[i][j] == 0) {
-                align1.insert(0, seq1.charAt(i - 1));
-                align2.insert(0, seq2.charAt(j - 1));
+        while (i > 0 && j > 0 && backtrack.source(i, j) != 3) {
+            if (backtrack.source(i, j) == 0) {
+                path.add(Cigar.MATCH, 1);
                 i--;
                 j--;
-            } else if (backtrack[i][j] == 1) {
-                align1.insert(0, seq1.charAt(i - 1));
-                align2.insert(0, '-');
+            } else if (backtrack.source(i, j) == 1) {
+                path.add(Cigar.DELETION, 1);
                 i--;
             } else {
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j - 1));
+                path.add(Cigar.INSERTION, 1);
                 j--;
             }
         }
 
-        StringBuilder completeAlign1 = new StringBuilder();
-        StringBuilder completeAlign2 = new StringBuilder();
+        Cigar cigar = AlignmentAlgorithm.padLocal(m, n, path.buildReversed(), i, j, maxI, maxJ);
 
-        if (i > 0) {
-            completeAlign1.append(seq1.substring(0, i));
-            completeAlign2.append("-".repeat(i));
-        }
-
-        completeAlign1.append(align1);
-        completeAlign2.append(align2);
-
-        if (maxI < seq1.length()) {
-            completeAlign1.append(seq1.substring(maxI));
-            completeAlign2.append("-".repeat(seq1.length() - maxI));
-        }
-
-        if (j > 0) {
-            completeAlign1.insert(0, "-".repeat(j));
-            completeAlign2.insert(0, seq2.substring(0, j));
-        }
-
-        if (maxJ < seq2.length()) {
-            completeAlign1.append("-".repeat(seq2.length() - maxJ));
-            completeAlign2.append(seq2.substring(maxJ));
-        }
-
-        int maxLength = Math.max(completeAlign1.length(), completeAlign2.length());
-        while (completeAlign1.length() < maxLength) {
-            completeAlign1.append("-");
-        }
-        while (completeAlign2.length() < maxLength) {
-            completeAlign2.append("-");
-        }
-
-        return parentAlgorithm.new AlignmentResult(
-            completeAlign1.toString(), 
-            completeAlign2.toString(), 
+        return parentAlgorithm.createResult(
+            seq1,
+            seq2,
+            cigar,
             maxScore,
-            dp,
-            backtrack
+            parentAlgorithm.capturedMatrix(dp, backtrack),
+            parentAlgorithm.capturedTraceback(backtrack)
         );
     }
 
     public AlignmentAlgorithm.AlignmentResult computeFreeshiftAlignment() {
         int m = seq1.length();
         int n = seq2.length();
-        double[][] dp = new double[m + 1][n + 1];
-        int[][] backtrack = new int[m + 1][n + 1];
+        byte[] a = parentAlgorithm.encode(seq1);
+        double[][] profile = parentAlgorithm.getProfile(seq2);
+        DPWorkspace workspace = DPWorkspace.get();
+        double[] dp = workspace.matrix(m, n);
+        Traceback backtrack = workspace.traceback(m, n);
+        int width = n + 1;
 
         for (int i = 0; i <= m; i++) {
-            dp[i][0] = 0;
+            dp[i * width] = 0;
         }
         for (int j = 0; j <= n; j++) {
-            dp[0][j] = 0;
+            dp[j] = 0;
         }
 
         for (int i = 1; i <= m; i++) {
+            double[] scores = profile[a[i - 1]];
             for (int j = 1; j <= n; j++) {
-                double match = dp[i - 1][j - 1] + parentAlgorithm.getSubstitutionScore(seq1.charAt(i - 1), seq2.charAt(j - 1));
-                double delete = dp[i - 1][j] + gapExtendPenalty;
-                double insert = dp[i][j - 1] + gapExtendPenalty;
+                double match = dp[(i - 1) * width + j - 1] + scores[j - 1];
+                double delete = dp[(i - 1) * width + j] + gapExtendPenalty;
+                double insert = dp[i * width + j - 1] + gapExtendPenalty;
 
                 double maxScore = match;
                 int backtrackDir = 0;
@@ -163,8 +138,8 @@ public class SmithWaterman {
                     backtrackDir = 2;
                 }
 
-                dp[i][j] = maxScore;
-                backtrack[i][j] = backtrackDir;
+                dp[i * width + j] = maxScore;
+                backtrack.set(i, j, backtrackDir);
             }
         }
 
@@ -172,65 +147,46 @@ public class SmithWaterman {
         int maxI = m, maxJ = n;
 
         for (int j = 0; j <= n; j++) {
-            if (dp[m][j] > maxScore) {
-                maxScore = dp[m][j];
+            if (dp[m * width + j] > maxScore) {
+                maxScore = dp[m * width + j];
                 maxI = m;
                 maxJ = j;
             }
         }
 
         for (int i = 0; i <= m; i++) {
-            if (dp[i][n] > maxScore) {
-                maxScore = dp[i][n];
+            if (dp[i * width + n] > maxScore) {
+                maxScore = dp[i * width + n];
                 maxI = i;
                 maxJ = n;
             }
         }
 
-        StringBuilder align1 = new StringBuilder();
-        StringBuilder align2 = new StringBuilder();
+        Cigar.Builder path = new Cigar.Builder();
         int i = maxI, j = maxJ;
 
-        if (j < n) {
-            align1.append("-".repeat(n - j));
-            align2.append(seq2.substring(j));
-        } else if (i < m) {
-            align1.append(seq1.substring(i));
-            align2.append("-".repeat(m - i));
-        }
-
-        while (i > 0 || j > 0) {
-            if (i > 0 && j > 0) {
-                if (backtrack[i][j] == 0) {
-                    align1.insert(0, seq1.charAt(i - 1));
-                    align2.insert(0, seq2.charAt(j - 1));
-                    i--; j--;
-                } else if (backtrack[i][j] == 1) {
-                    align1.insert(0, seq1.charAt(i - 1));
-                    align2.insert(0, '-');
-                    i--;
-                } else if (backtrack[i][j] == 2) {
-                    align1.insert(0, '-');
-                    align2.insert(0, seq2.charAt(j - 1));
-                    j--;
-                }
-            } else if (i > 0) {
-                align1.insert(0, seq1.charAt(i - 1));
-                align2.insert(0, '-');
+        while (i > 0 && j > 0) {
+            if (backtrack.source(i, j) == 0) {
+                path.add(Cigar.MATCH, 1);
+                i--; j--;
+            } else if (backtrack.source(i, j) == 1) {
+                path.add(Cigar.DELETION, 1);
                 i--;
             } else {
-                align1.insert(0, '-');
-                align2.insert(0, seq2.charAt(j - 1));
+                path.add(Cigar.INSERTION, 1);
                 j--;
             }
         }
 
-        return parentAlgorithm.new AlignmentResult(
-            align1.toString(),
-            align2.toString(),
+        Cigar cigar = AlignmentAlgorithm.padFreeshift(m, n, path.buildReversed(), i, j, maxI, maxJ);
+
+        return parentAlgorithm.createResult(
+            seq1,
+            seq2,
+            cigar,
             maxScore,
-            dp,
-            backtrack
+            parentAlgorithm.capturedMatrix(dp, backtrack),
+            parentAlgorithm.capturedTraceback(backtrack)
         );
     }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class StripedSmithWaterman {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+
+    private final SubstitutionMatrix substitutionMatrix;
+    private final int scale;
+    private final int[][] matrix;
+    private final int gapOpenCost;
+    private final int gapExtendCost;
+    private final AlignmentAlgorithm parentAlgorithm;
+
+    // profile and column buffers are per thread, so one instance can score pairs concurrently
+    private final ThreadLocal<Stripes> stripes = ThreadLocal.withInitial(Stripes::new);
+
+    private static class Stripes {
+        String profileQuery;
+        int[] profile;
+        int segLen;
+        int[] hLoad = new int[0];
+        int[] hStore = new int[0];
+        int[] E = new int[0];
+        int[] F = new int[0];
+    }
+
+    public StripedSmithWaterman(SubstitutionMatrix substitutionMatrix, AlignmentAlgorithm parent) {
+        this.substitutionMatrix = substitutionMatrix;
+        this.parentAlgorithm = parent;
+        this.scale = substitutionMatrix.getQuantizationScale(parent.getGapOpenPenalty(), parent.getGapExtendPenalty());
+        this.matrix = substitutionMatrix.getQuantizedMatrix(scale);
+        this.gapOpenCost = (int) -Math.round((parent.getGapOpenPenalty() + parent.getGapExtendPenalty()) * scale);
+        this.gapExtendCost = (int) -Math.round(parent.getGapExtendPenalty() * scale);
+    }
+
+    // Traceback is only needed for reported hits; it runs on the regular Gotoh kernel
+    public AlignmentAlgorithm.AlignmentResult computeAlignment(String seq1, String seq2) {
+        return parentAlgorithm.localAlignment(seq1, seq2);
+    }
+
+    // Farrar's striped local affine score: seq1 is the query laid out across the vector lanes,
+    // seq2 is streamed column by column. The profile of the last query is reused. Scores are
+    // int / scale, bit-identical to the --quantize local kernel but not always to the double one.
+    // Pairs whose int scores could overflow are scored by the parent's local kernel instead.
+    public double score(String seq1, String seq2) {
+        if (!substitutionMatrix.fitsQuantized(scale, parentAlgorithm.getGapOpenPenalty(),
+                parentAlgorithm.getGapExtendPenalty(), seq1.length(), seq2.length())) {
+            return parentAlgorithm.localScore(seq1, seq2).score;
+        }
+        Stripes w = stripes.get();
+        if (!seq1.equals(w.profileQuery)) {
+            buildProfile(w, seq1);
+        }
+        byte[] b = substitutionMatrix.encode(seq2);
+        int stride = w.segLen * LANES;
+        int[] profile = w.profile;
+        int[] hLoad = w.hLoad;
+        int[] hStore = w.hStore;
+        int[] E = w.E;
+        int[] F = w.F;
+
+        Arrays.fill(hStore, 0, stride, 0);
+        Arrays.fill(E, 0, stride, NEGATIVE_INFINITY);
+
+        IntVector zero = IntVector.zero(SPECIES);
+        IntVector negativeInfinity = IntVector.broadcast(SPECIES, NEGATIVE_INFINITY);
+        IntVector vGapOpen = IntVector.broadcast(SPECIES, gapOpenCost);
+        IntVector vGapExtend = IntVector.broadcast(SPECIES, gapExtendCost);
+        VectorMask<Integer> firstLane = VectorMask.fromLong(SPECIES, 1);
+        IntVector vMax = zero;
+
+        for (int j = 0; j < b.length; j++) {
+            int pOff = b[j] * stride;
+
+            // H of the previous column shifted one lane up, as the diagonal input of segment 0
+            IntVector vH = IntVector.fromArray(SPECIES, hStore, stride - LANES).unslice(1);
+            int[] tmp = hLoad;
+            hLoad = hStore;
+            hStore = tmp;
+            IntVector vF = negativeInfinity;
+
+            for (int off = 0; off < stride; off += LANES) {
+                IntVector e = IntVector.fromArray(SPECIES, E, off);
+                IntVector h = vH.add(IntVector.fromArray(SPECIES, profile, pOff + off))
+                        .max(e).max(vF).max(zero);
+                h.intoArray(hStore, off);
+                vMax = vMax.max(h);
+                IntVector open = h.sub(vGapOpen);
+                e.sub(vGapExtend).max(open).intoArray(E, off);
+                vF.intoArray(F, off);
+                vF = vF.sub(vGapExtend).max(open);
+                vH = IntVector.fromArray(SPECIES, hLoad, off);
+            }
+
+            // lazy F: carry vertical gaps across stripe boundaries while they beat the F
+            // value the first pass used for that cell
+            vF = vF.unslice(1).blend(negativeInfinity, firstLane);
+            int off = 0;
+            while (true) {
+                IntVector f = IntVector.fromArray(SPECIES, F, off);
+                if (!vF.compare(VectorOperators.GT, f).anyTrue()) {
+                    break;
+                }
+                f = f.max(vF);
+                f.intoArray(F, off);
+                IntVector h = IntVector.fromArray(SPECIES, hStore, off).max(f);
+                h.intoArray(hStore, off);
+                vMax = vMax.max(h);
+                IntVector.fromArray(SPECIES, E, off).max(h.sub(vGapOpen)).intoArray(E, off);
+                vF = f.sub(vGapExtend);
+
+                off += LANES;
+                if (off == stride) {
+                    off = 0;
+                    vF = vF.unslice(1).blend(negativeInfinity, firstLane);
+                }
+            }
+        }
+        w.hLoad = hLoad;
+        w.hStore = hStore;
+
+        return (double) vMax.reduceLanes(VectorOperators.MAX) / scale;
+    }
+
+    private void buildProfile(Stripes w, String query) {
+        byte[] a = substitutionMatrix.encode(query);
+        w.segLen = Math.max(1, (a.length + LANES - 1) / LANES);
+        int segLen = w.segLen;
+        int stride = segLen * LANES;
+        w.profile = new int[matrix.length * stride];
+        for (int res = 0; res < matrix.length; res++) {
+            for (int s = 0; s < segLen; s++) {
+                for (int k = 0; k < LANES; k++) {
+                    int q = k * segLen + s;
+                    w.profile[res * stride + s * LANES + k] = q < a.length ? matrix[a[q]][res] : 0;
+                }
+            }
+        }
+        if (w.hStore.length < stride) {
+            w.hLoad = new int[stride];
+            w.hStore = new int[stride];
+            w.E = new int[stride];
+            w.F = new int[stride];
+        }
+        w.profileQuery = query;
+    }
+}
@@ -1,9 +1,15 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class SubstitutionMatrix {
+    private static final int MAX_QUANTIZATION_SCALE = 10000;
+    // int kernels only run when no reachable score exceeds this, leaving room for one more step
+    private static final long MAX_QUANTIZED_SCORE = Integer.MAX_VALUE / 2;
+
     private final double[][] matrix;
     private final Map<Character, Integer> aminoAcidIndices;
+    private final byte[] residueCodes = new byte[128];
     private final List<Character> aminoAcids;
     private final boolean debug;
 
@@ -42,10 +48,17 @@ public class SubstitutionMatrix {
             throw new IOException("No ROWINDEX found in matrix file");
         }
 
+        if (rowIndex.length() > Byte.MAX_VALUE) {
+            throw new IOException("Too many residues in ROWINDEX: " + rowIndex.length());
+        }
+        Arrays.fill(residueCodes, (byte) -1);
         for (int i = 0; i < rowIndex.length(); i++) {
             char aa = rowIndex.charAt(i);
             aminoAcidIndices.put(aa, i);
             aminoAcids.add(aa);
+            if (aa < residueCodes.length) {
+                residueCodes[aa] = (byte) i;
+            }
         }
 
         int size = aminoAcids.size();
@@ -76,17 +89,123 @@ public class SubstitutionMatrix {
     }
 
     public double getScore(char aa1, char aa2) {
-        Integer index1 = aminoAcidIndices.get(aa1);
-        Integer index2 = aminoAcidIndices.get(aa2);
+        int index1 = aa1 < residueCodes.length ? residueCodes[aa1] : -1;
+        int index2 = aa2 < residueCodes.length ? residueCodes[aa2] : -1;
 
-        if (index1 == null || index2 == null) {
+        if (index1 < 0 || index2 < 0) {
             throw new IllegalArgumentException("Unknown amino acid: " +
-                    (index1 == null ? aa1 : aa2));
+                    (index1 < 0 ? aa1 : aa2));
         }
 
         return matrix[index1][index2];
     }
 
+    // Smallest power of ten that turns every matrix entry and the given penalties into an integer
+    public int getQuantizationScale(double... extraValues) {
+        for (int scale = 1; scale <= MAX_QUANTIZATION_SCALE; scale *= 10) {
+            boolean exact = true;
+            for (double[] row : matrix) {
+                for (double value : row) {
+                    exact &= isIntegral(value * scale);
+                }
+            }
+            for (double value : extraValues) {
+                exact &= isIntegral(value * scale);
+            }
+            if (exact) {
+                return scale;
+            }
+        }
+        throw new IllegalArgumentException("Scores cannot be quantized exactly (more than 4 decimals)");
+    }
+
+    // Whether every score of an m x n alignment stays within int range at this scale: at most min(m, n)
+    // aligned pairs at the largest entry, and at most m + n gap positions, each opening a gap
+    public boolean fitsQuantized(int scale, double gapOpen, double gapExtend, int m, int n) {
+        double largest = 0;
+        for (double[] row : matrix) {
+            for (double value : row) {
+                largest = Math.max(largest, Math.abs(value));
+            }
+        }
+        long entry = Math.round(largest * scale);
+        long gap = Math.round((Math.abs(gapOpen) + Math.abs(gapExtend)) * scale);
+        return entry * Math.min(m, n) + gap * ((long) m + n) <= MAX_QUANTIZED_SCORE;
+    }
+
+    public int[][] getQuantizedMatrix(int scale) {
+        int size = aminoAcids.size();
+        int[][] result = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                result[i][j] = (int) Math.round(matrix[i][j] * scale);
+            }
+        }
+        return result;
+    }
+
+    // Residue indices of a sequence; unknown residues are rejected here, once per sequence
+    public byte[] encode(String sequence) {
+        byte[] encoded = new byte[sequence.length()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = code(sequence.charAt(i));
+        }
+        return encoded;
+    }
+
+    // Residue indices of the remaining ASCII residues of a buffer, such as a SequenceDatabase view;
+    // the buffer's position is left unchanged
+    public byte[] encode(ByteBuffer residues) {
+        byte[] encoded = new byte[residues.remaining()];
+        int start = residues.position();
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = code((char) (residues.get(start + i) & 0xFF));
+        }
+        return encoded;
+    }
+
+    private byte code(char aa) {
+        byte code = aa < residueCodes.length ? residueCodes[aa] : -1;
+        if (code < 0) {
+            throw new IllegalArgumentException("Unknown amino acid: " + aa);
+        }
+        return code;
+    }
+
+    // profile[residue][j] = score of residue against position j of the encoded sequence
+    public double[][] getProfile(byte[] sequence) {
+        double[][] profile = new double[matrix.length][sequence.length];
+        for (int res = 0; res < matrix.length; res++) {
+            double[] scores = matrix[res];
+            double[] row = profile[res];
+            for (int j = 0; j < sequence.length; j++) {
+                row[j] = scores[sequence[j]];
+            }
+        }
+        return profile;
+    }
+
+    // profile[residue][j] = score of position j of the encoded sequence against residue, for DPs
+    // that run with the sequence along j although it is the first sequence of the pair
+    public double[][] getTransposedProfile(byte[] sequence) {
+        double[][] profile = new double[matrix.length][sequence.length];
+        for (int res = 0; res < matrix.length; res++) {
+            double[] row = profile[res];
+            for (int j = 0; j < sequence.length; j++) {
+                row[j] = matrix[sequence[j]][res];
+            }
+        }
+        return profile;
+    }
+
+    public double[][] getProfile(String sequence) {
+        return getProfile(encode(sequence));
+    }
+
+    private static boolean isIntegral(double value) {
+        return Math.abs(value - Math.rint(value)) < 1e-6;
+    }
+
     public Set<Character> getAminoAcids() {
         return new HashSet<>(aminoAcids);
     }
@@ -7,6 +7,7 @@ public class Test {
             SubstitutionMatrix matrix = new SubstitutionMatrix("C:/Users/rusha/PycharmProjects/pythonProject4/PBlock/Alignment/Propra/src/dayhoff.mat", false);
 
             AlignmentAlgorithm algorithm = new AlignmentAlgorithm(matrix, -11.0, -5.0);
+            algorithm.setCaptureMatrices(true);
 
             //String seq1 = "ADAAPTVSIFPPSSEQLTSGGASVVCFLNNFYPKDINVKWKIDGSERQNGVLNSWTDQDSKDSTYSMSSTLTLTKDEYERHNGYTCEATHKTSTSPIVKS";
             //String seq2 = "VPTPTNVTIESYNMNPIVYWEYQIMPQVPVFTVEVKNYGVKNSEWIDACINISHHYCNISDHVGDPSNSLWVRVKARVGQKESAYAKSEEFAVCRD";
@@ -34,19 +35,19 @@ public class Test {
             System.out.println();
 
             System.out.println("Backtrack Matrix:");
-            printBacktrackMatrix(result.backtrackMatrix);
+            printBacktrackMatrix(result.traceback.toMatrix());
             System.out.println();
 
             // Print alignment
             System.out.println("Alignment:");
-            System.out.println(result.seq1Aligned);
-            System.out.println(result.seq2Aligned);
+            System.out.println(result.getSeq1Aligned());
+            System.out.println(result.getSeq2Aligned());
             System.out.println();
 
             System.out.println("Score: " + result.score);
             System.out.println("Alignment Length: " + result.alignmentLength);
-            System.out.println("Matches: " + result.numMatches);
-            System.out.println("Positives: " + result.numPositives);
+            System.out.println("Matches: " + result.getNumMatches());
+            System.out.println("Positives: " + result.getNumPositives());
 
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+// Gotoh traceback codes packed two cells per byte. The low two bits name the source of M[i][j],
+// E_OPEN / F_OPEN mark cells where the horizontal / vertical gap was opened rather than extended.
+// Banded kernels store only part of each row: cell (i, j) then sits at rowOffset[i] + j.
+public class Traceback {
+    public static final int DIAGONAL = 0;
+    public static final int FROM_F = 1;
+    public static final int FROM_E = 2;
+    public static final int STOP = 3;
+    public static final int E_OPEN = 4;
+    public static final int F_OPEN = 8;
+    private static final int SOURCE = 3;
+
+    private byte[] codes;
+    private final int rows;
+    private final int columns;
+    // null when every row is stored whole
+    private final int[] rowOffset;
+
+    public Traceback(int m, int n) {
+        this(m, n, new byte[(int) (((long) (m + 1) * (n + 1) + 1) / 2)]);
+    }
+
+    // codes must be cleared and hold at least ((m+1)*(n+1)+1)/2 bytes
+    Traceback(int m, int n, byte[] codes) {
+        this(m, n, codes, null);
+    }
+
+    // Only the cells a kernel sets may be read back; rowOffset is filled in by the kernel as it goes
+    Traceback(int m, int n, byte[] codes, int[] rowOffset) {
+        this.rows = m + 1;
+        this.columns = n + 1;
+        this.codes = codes;
+        this.rowOffset = rowOffset;
+    }
+
+    public Traceback copy() {
+        if (rowOffset != null) {
+            return new Traceback(rows - 1, columns - 1, codes.clone(), rowOffset.clone());
+        }
+        return new Traceback(rows - 1, columns - 1,
+                Arrays.copyOf(codes, (int) (((long) rows * columns + 1) / 2)));
+    }
+
+    // Room for codes at positions below cells, for kernels that only learn their row windows while filling
+    void reserve(int cells) {
+        if ((long) codes.length * 2 < cells) {
+            codes = Arrays.copyOf(codes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) cells, 4L * codes.length) / 2 + 1));
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    private int position(int i, int j) {
+        return rowOffset == null ? i * columns + j : rowOffset[i] + j;
+    }
+
+    public void set(int i, int j, int code) {
+        int k = position(i, j);
+        int shift = (k & 1) << 2;
+        codes[k >> 1] = (byte) ((codes[k >> 1] & ~(0xF << shift)) | (code << shift));
+    }
+
+    public int get(int i, int j) {
+        int k = position(i, j);
+        return (codes[k >> 1] >> ((k & 1) << 2)) & 0xF;
+    }
+
+    public int source(int i, int j) {
+        return get(i, j) & SOURCE;
+    }
+
+    // M source per cell: 0 diagonal, 1 vertical gap, 2 horizontal gap, 3 local start
+    public int[][] toMatrix() {
+        int[][] matrix = new int[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                matrix[i][j] = source(i, j);
+            }
+        }
+        return matrix;
+    }
+
+    // Follows the codes back from (i, j) while both are positive, adding the columns to path
+    // last column first. Returns the cell where the path left the matrix interior or reached a
+    // local start.
+    int[] walk(int i, int j, Cigar.Builder path) {
+        int state = DIAGONAL;
+        while (i > 0 && j > 0) {
+            int code = get(i, j);
+            if (state == DIAGONAL) {
+                state = code & SOURCE;
+                if (state == STOP) {
+                    break;
+                }
+                if (state == DIAGONAL) {
+                    path.add(Cigar.MATCH, 1);
+                    i--; j--;
+                    continue;
+                }
+            }
+
+            if (state == FROM_F) {
+                path.add(Cigar.DELETION, 1);
+                i--;
+                if ((code & F_OPEN) != 0) {
+                    state = DIAGONAL;
+                }
+            } else {
+                path.add(Cigar.INSERTION, 1);
+                j--;
+                if ((code & E_OPEN) != 0) {
+                    state = DIAGONAL;
+                }
+            }
+        }
+        return new int[]{i, j};
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class WavefrontGotoh {
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final AlignmentAlgorithm parentAlgorithm;
+    private final double gapOpenPenalty;
+    private final double gapExtendPenalty;
+    private final int tileSize;
+    private final ForkJoinPool pool;
+
+    public WavefrontGotoh(AlignmentAlgorithm parent) {
+        this(parent, DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public WavefrontGotoh(AlignmentAlgorithm parent, int tileSize, ForkJoinPool pool) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.parentAlgorithm = parent;
+        this.gapOpenPenalty = parent.getGapOpenPenalty();
+        this.gapExtendPenalty = parent.getGapExtendPenalty();
+        this.tileSize = tileSize;
+        this.pool = pool;
+    }
+
+    // Same results as the sequential score kernels of AlignmentAlgorithm, including the end cell
+    public AlignmentAlgorithm.ScoreResult globalScore(String seq1, String seq2) {
+        if (seq1.isEmpty() || seq2.isEmpty()) {
+            return parentAlgorithm.globalScore(seq1, seq2);
+        }
+        Fill fill = new Fill(seq1, seq2, false, true);
+        fill.run();
+        return new AlignmentAlgorithm.ScoreResult(fill.rowM[seq2.length()], seq1.length(), seq2.length());
+    }
+
+    public AlignmentAlgorithm.ScoreResult localScore(String seq1, String seq2) {
+        if (seq1.isEmpty() || seq2.isEmpty()) {
+            return parentAlgorithm.localScore(seq1, seq2);
+        }
+        Fill fill = new Fill(seq1, seq2, true, false);
+        fill.run();
+
+        double maxScore = 0;
+        int maxI = 0, maxJ = 0;
+        for (int t = 0; t < fill.tileRows; t++) {
+            // tile rows are disjoint row ranges, so the first strict maximum in row-major order wins
+            if (fill.bestScore[t] > maxScore) {
+                maxScore = fill.bestScore[t];
+                maxI = fill.bestI[t];
+                maxJ = fill.bestJ[t];
+            }
+        }
+        return new AlignmentAlgorithm.ScoreResult(maxScore, maxI, maxJ);
+    }
+
+    public AlignmentAlgorithm.ScoreResult freeShiftScore(String seq1, String seq2) {
+        if (seq1.isEmpty() || seq2.isEmpty()) {
+            return parentAlgorithm.freeShiftScore(seq1, seq2);
+        }
+        int m = seq1.length();
+        int n = seq2.length();
+        Fill fill = new Fill(seq1, seq2, false, false);
+        fill.run();
+
+        // rowM now holds the last row and colM the last column
+        double maxScore = Double.NEGATIVE_INFINITY;
+        int maxI = m, maxJ = n;
+        for (int j = 0; j <= n; j++) {
+            if (fill.rowM[j] > maxScore) {
+                maxScore = fill.rowM[j];
+                maxJ = j;
+            }
+        }
+        for (int i = 0; i <= m; i++) {
+            if (fill.colM[i] > maxScore) {
+                maxScore = fill.colM[i];
+                maxI = i;
+                maxJ = n;
+            }
+        }
+        return new AlignmentAlgorithm.ScoreResult(maxScore, maxI, maxJ);
+    }
+
+    // One wavefront fill. Tiles only exchange their borders: rowM/rowF hold the bottom row of the
+    // tile above, colM/colE the last column of the tile to the left, corner the diagonal input.
+    private class Fill {
+        private final String seq1;
+        private final String seq2;
+        private final boolean local;
+        private final byte[] a;
+        private final double[][] profile;
+        private final boolean globalBorders;
+        private final int tileRows;
+        private final int tileCols;
+
+        private final double[] rowM;
+        private final double[] rowF;
+        private final double[] colM;
+        private final double[] colE;
+        private final double[] corner;
+        private final double[] bestScore;
+        private final int[] bestI;
+        private final int[] bestJ;
+
+        Fill(String seq1, String seq2, boolean local, boolean globalBorders) {
+            this.seq1 = seq1;
+            this.seq2 = seq2;
+            this.local = local;
+            this.globalBorders = globalBorders;
+            this.a = parentAlgorithm.encode(seq1);
+            this.profile = parentAlgorithm.getProfile(seq2);
+            int m = seq1.length();
+            int n = seq2.length();
+            tileRows = (m + tileSize - 1) / tileSize;
+            tileCols = (n + tileSize - 1) / tileSize;
+
+            rowM = new double[n + 1];
+            rowF = new double[n + 1];
+            colM = new double[m + 1];
+            colE = new double[m + 1];
+            corner = new double[tileRows];
+            bestScore = new double[tileRows];
+            bestI = new int[tileRows];
+            bestJ = new int[tileRows];
+
+            Arrays.fill(rowF, Double.NEGATIVE_INFINITY);
+            Arrays.fill(colE, Double.NEGATIVE_INFINITY);
+            for (int j = 1; j <= n; j++) {
+                rowM[j] = border(j);
+            }
+            for (int i = 1; i <= m; i++) {
+                colM[i] = border(i);
+            }
+        }
+
+        private double border(int k) {
+            return globalBorders && k > 0 ? gapOpenPenalty + k * gapExtendPenalty : 0;
+        }
+
+        void run() {
+            pool.invoke(ForkJoinTask.adapt(() -> {
+                for (int d = 0; d < tileRows + tileCols - 1; d++) {
+                    int first = Math.max(0, d - tileCols + 1);
+                    int last = Math.min(d, tileRows - 1);
+                    if (first == last) {
+                        computeTile(first, d - first);
+                        continue;
+                    }
+                    List<ForkJoinTask<?>> tiles = new ArrayList<>(last - first + 1);
+                    for (int ti = first; ti <= last; ti++) {
+                        int row = ti;
+                        int col = d - ti;
+                        tiles.add(ForkJoinTask.adapt(() -> computeTile(row, col)));
+                    }
+                    ForkJoinTask.invokeAll(tiles);
+                }
+            }));
+        }
+
+        private void computeTile(int ti, int tj) {
+            int r0 = ti * tileSize + 1;
+            int r1 = Math.min(seq1.length(), r0 + tileSize - 1);
+            int c0 = tj * tileSize + 1;
+            int c1 = Math.min(seq2.length(), c0 + tileSize - 1);
+            int w = c1 - c0 + 1;
+
+            double[] M = new double[w + 1];
+            double[] F = new double[w + 1];
+            System.arraycopy(rowM, c0, M, 1, w);
+            System.arraycopy(rowF, c0, F, 1, w);
+            M[0] = tj == 0 ? border(r0 - 1) : corner[ti];
+            // M[r0-1][c1] is the diagonal input of the next tile in this tile row
+            corner[ti] = rowM[c1];
+
+            double best = bestScore[ti];
+            int bi = bestI[ti], bj = bestJ[ti];
+
+            for (int i = r0; i <= r1; i++) {
+                double[] scores = profile[a[i-1]];
+                double diag = M[0];
+                M[0] = colM[i];
+                double E = colE[i];
+                for (int k = 1; k <= w; k++) {
+                    E = Math.max(M[k-1] + gapOpenPenalty + gapExtendPenalty, E + gapExtendPenalty);
+                    F[k] = Math.max(M[k] + gapOpenPenalty + gapExtendPenalty, F[k] + gapExtendPenalty);
+                    double match = diag + scores[c0 + k - 2];
+                    diag = M[k];
+                    if (local) {
+                        M[k] = Math.max(0, Math.max(Math.max(match, E), F[k]));
+                        // tiles of one tile row run left to right, so only a strictly better
+                        // score or an earlier row replaces the best cell
+                        if (M[k] > best || (M[k] == best && best > 0 && i < bi)) {
+                            best = M[k];
+                            bi = i;
+                            bj = c0 + k - 1;
+                        }
+                    } else {
+                        M[k] = Math.max(Math.max(F[k], E), match);
+                    }
+                }
+                colM[i] = M[w];
+                colE[i] = E;
+            }
+
+            System.arraycopy(M, 1, rowM, c0, w);
+            System.arraycopy(F, 1, rowF, c0, w);
+            bestScore[ti] = best;
+            bestI[ti] = bi;
+            bestJ[ti] = bj;
+        }
+    }
+}
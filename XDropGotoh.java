@@ -0,0 +1,231 @@
+import java.util.Arrays;
+
+public class XDropGotoh {
+    private final AlignmentAlgorithm parentAlgorithm;
+    private final double gapOpenPenalty;
+    private final double gapExtendPenalty;
+    private final double xDrop;
+
+    public static class XDropResult {
+        public final AlignmentAlgorithm.AlignmentResult alignment;
+        public final long cellsEvaluated;
+        // true when the end cell was pruned and the full kernel produced the alignment
+        public final boolean fullMatrix;
+
+        public XDropResult(AlignmentAlgorithm.AlignmentResult alignment, long cellsEvaluated, boolean fullMatrix) {
+            this.alignment = alignment;
+            this.cellsEvaluated = cellsEvaluated;
+            this.fullMatrix = fullMatrix;
+        }
+    }
+
+    public XDropGotoh(AlignmentAlgorithm parent, double xDrop) {
+        if (xDrop < 0) {
+            throw new IllegalArgumentException("X-drop must not be negative: " + xDrop);
+        }
+        this.parentAlgorithm = parent;
+        this.gapOpenPenalty = parent.getGapOpenPenalty();
+        this.gapExtendPenalty = parent.getGapExtendPenalty();
+        this.xDrop = xDrop;
+    }
+
+    public XDropResult globalAlignment(String seq1, String seq2) {
+        return align(seq1, seq2, false);
+    }
+
+    public XDropResult freeShiftAlignment(String seq1, String seq2) {
+        return align(seq1, seq2, true);
+    }
+
+    private XDropResult align(String seq1, String seq2, boolean freeShift) {
+        Window w = new Window(seq1, seq2, freeShift);
+        w.fill();
+        if (w.score == Double.NEGATIVE_INFINITY) {
+            AlignmentAlgorithm.AlignmentResult full = freeShift ? parentAlgorithm.freeShiftAlignment(seq1, seq2)
+                                                                : parentAlgorithm.globalAlignment(seq1, seq2);
+            return new XDropResult(full, w.cells + (long) seq1.length() * seq2.length(), true);
+        }
+        return new XDropResult(w.traceback(), w.cells, false);
+    }
+
+    // Gotoh rows restricted to a window of live cells. A cell is dropped when its score falls more than
+    // xDrop below the best score seen so far; each row spans the live cells of the row above plus
+    // whatever a horizontal gap keeps alive to the right. Only the traceback codes of the cells
+    // computed are kept, row after row.
+    private class Window {
+        private final String seq1;
+        private final String seq2;
+        private final boolean freeShift;
+        private final int m;
+        private final int n;
+        private final byte[] a;
+        private final double[][] profile;
+
+        private final Traceback traceback;
+        private final int[] rowOffset;
+        private long cells;
+        private double score = Double.NEGATIVE_INFINITY;
+        private int endI;
+        private int endJ;
+
+        Window(String seq1, String seq2, boolean freeShift) {
+            this.seq1 = seq1;
+            this.seq2 = seq2;
+            this.freeShift = freeShift;
+            m = seq1.length();
+            n = seq2.length();
+            a = parentAlgorithm.encode(seq1);
+            profile = parentAlgorithm.getProfile(seq2);
+            rowOffset = new int[m + 1];
+            traceback = new Traceback(m, n, new byte[n + 1], rowOffset);
+        }
+
+        private double border(int k) {
+            return freeShift || k == 0 ? 0 : gapOpenPenalty + k * gapExtendPenalty;
+        }
+
+        void fill() {
+            double best = 0;
+            DPWorkspace workspace = DPWorkspace.get();
+            double[] prevM = workspace.row(0, n);
+            double[] currM = workspace.row(1, n);
+            // F of the row above until overwritten by the current row
+            double[] F = workspace.row(2, n);
+            double[] lastColumn = new double[m + 1];
+            Arrays.fill(lastColumn, Double.NEGATIVE_INFINITY);
+
+            int j = 0;
+            while (j <= n && border(j) >= best - xDrop) {
+                prevM[j] = border(j);
+                F[j] = Double.NEGATIVE_INFINITY;
+                j++;
+            }
+            cells += j;
+            // live cells of the row above
+            int prevStart = 0;
+            int prevEnd = j - 1;
+            int lastRow = 0;
+            if (prevEnd == n) {
+                lastColumn[0] = prevM[n];
+            }
+            // codes used so far, rows of computed cells one after another
+            int used = 0;
+
+            for (int i = 1; i <= m; i++) {
+                double[] scores = profile[a[i-1]];
+                int first = -1, last = -1;
+                int start = prevStart;
+                rowOffset[i] = used - start;
+                traceback.reserve(used + n + 1 - start);
+
+                j = prevStart;
+                if (j == 0) {
+                    currM[0] = border(i);
+                    F[0] = freeShift ? Double.NEGATIVE_INFINITY : currM[0];
+                    if (currM[0] < best - xDrop) {
+                        currM[0] = F[0] = Double.NEGATIVE_INFINITY;
+                    } else {
+                        first = last = 0;
+                    }
+                    cells++;
+                    j = 1;
+                }
+
+                double leftM = j > start ? currM[j-1] : Double.NEGATIVE_INFINITY;
+                double leftE = Double.NEGATIVE_INFINITY;
+                double rowBest = Double.NEGATIVE_INFINITY;
+                for (; j <= n; j++) {
+                    boolean above = j >= prevStart && j <= prevEnd;
+                    double upM = above ? prevM[j] : Double.NEGATIVE_INFINITY;
+                    double upF = above ? F[j] : Double.NEGATIVE_INFINITY;
+                    double diagonal = j - 1 >= prevStart && j - 1 <= prevEnd ? prevM[j-1] : Double.NEGATIVE_INFINITY;
+                    double openE = leftM + gapOpenPenalty + gapExtendPenalty;
+                    double openF = upM + gapOpenPenalty + gapExtendPenalty;
+                    double e = Math.max(openE, leftE + gapExtendPenalty);
+                    double f = Math.max(openF, upF + gapExtendPenalty);
+                    double match = diagonal + scores[j-1];
+                    double h = Math.max(Math.max(f, e), match);
+                    traceback.set(i, j, AlignmentAlgorithm.tracebackCode(h, e, f, openE, openF, false));
+                    cells++;
+
+                    if (h < best - xDrop) {
+                        h = e = f = Double.NEGATIVE_INFINITY;
+                    } else {
+                        if (first < 0) {
+                            first = j;
+                        }
+                        last = j;
+                        rowBest = Math.max(rowBest, h);
+                    }
+                    currM[j] = h;
+                    F[j] = f;
+                    leftM = h;
+                    leftE = e;
+
+                    // past the row above only a live horizontal gap can reach further cells
+                    if (j > prevEnd && h == Double.NEGATIVE_INFINITY) {
+                        break;
+                    }
+                }
+                used += Math.min(j, n) - start + 1;
+
+                if (first < 0) {
+                    break;
+                }
+                if (last == n) {
+                    lastColumn[i] = currM[n];
+                }
+                prevStart = first;
+                prevEnd = last;
+                lastRow = i;
+                best = Math.max(best, rowBest);
+                double[] tmp = prevM;
+                prevM = currM;
+                currM = tmp;
+            }
+
+            // prevM now holds the live cells prevStart..prevEnd of lastRow
+            endI = m;
+            endJ = n;
+            if (!freeShift) {
+                if (lastRow == m && prevEnd == n) {
+                    score = prevM[n];
+                }
+                return;
+            }
+
+            // same end cell as AlignmentAlgorithm.freeShiftAlignment: last row first, then last column
+            if (lastRow == m) {
+                for (j = prevStart; j <= prevEnd; j++) {
+                    if (prevM[j] > score) {
+                        score = prevM[j];
+                        endJ = j;
+                    }
+                }
+            }
+            for (int i = 0; i <= m; i++) {
+                if (lastColumn[i] > score) {
+                    score = lastColumn[i];
+                    endI = i;
+                    endJ = n;
+                }
+            }
+        }
+
+        AlignmentAlgorithm.AlignmentResult traceback() {
+            Cigar.Builder path = new Cigar.Builder();
+            int[] start = traceback.walk(endI, endJ, path);
+            int i = start[0], j = start[1];
+
+            Cigar cigar;
+            if (freeShift) {
+                cigar = AlignmentAlgorithm.padFreeshift(m, n, path.buildReversed(), i, j, endI, endJ);
+            } else {
+                path.add(Cigar.DELETION, i);
+                path.add(Cigar.INSERTION, j);
+                cigar = path.buildReversed();
+            }
+            return parentAlgorithm.createResult(seq1, seq2, cigar, score, null, null);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 #!/bin/bash
 
 echo "Compiling Java files..."
-javac *.java
+javac --add-modules jdk.incubator.vector *.java
 
 echo "Creating JAR manifest..."
 echo "Main-Class: Alignment" > manifest.txt
@@ -13,4 +13,5 @@ echo "Cleaning up..."
 rm manifest.txt *.class
 
 echo "Done! You can now run the program using:"
-echo "java -jar alignment.jar [options]" 
\ No newline at end of file
+echo "java -jar alignment.jar [options]"
+echo "(add --add-modules jdk.incubator.vector before -jar to use --striped and batched --quantize local scoring)" 
\ No newline at end of file
@@ -1,7 +1,7 @@
 #!/bin/bash
 
 echo "Compiling Java files..."
-javac -d out *.java
+javac --add-modules jdk.incubator.vector -d out *.java
 
 echo "Creating JAR manifest..."
 echo "Main-Class: Alignment1.java" > manifest.txt